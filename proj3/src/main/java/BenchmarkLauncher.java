@@ -0,0 +1,258 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class provides a main method for timing the hot paths of the server against
+ * the implementations they replaced, on whichever OSM file is passed in (the Berkeley
+ * extract by default). It is a plain timing loop with a warm-up pass rather than a full
+ * harness, so compare numbers from the same run only.
+ * Usage: BenchmarkLauncher [osm xml path] [route params path]
+ */
+public class BenchmarkLauncher {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final String PATH_PARAMS_FILE = "path_params.txt";
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int QUERIES = 20000;
+    private static final int ROUTES = 200;
+    /** Depth of a tile set over the Berkeley bounds, to check raster planning does not slow. */
+    private static final int DEEP_TILE_SET_DEPTH = 20;
+    /** Results are folded into here so the JIT cannot drop the timed calls. */
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        TileSet berkeley = TileSet.berkeley();
+        benchmarkRaster(berkeley);
+        benchmarkRaster(new TileSet("berkeley-deep", berkeley.ullon(), berkeley.ullat(),
+                berkeley.lrlon(), berkeley.lrlat(), DEEP_TILE_SET_DEPTH, berkeley.tileSize(),
+                berkeley.backend(), berkeley.path()));
+        String dbPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        GraphDB g = new GraphDB(dbPath);
+        String paramsPath = args.length > 1 ? args[1] : PATH_PARAMS_FILE;
+        benchmarkClosest(g);
+        benchmarkCleanString(g);
+        System.out.println("Random routes:");
+        benchmarkRoutes(g, randomRoutes(new Random(61), ROUTES));
+        try {
+            double[][] routes = readRoutes(paramsPath);
+            System.out.println("Routes from " + paramsPath + ":");
+            benchmarkRoutes(g, routes);
+        } catch (IOException e) {
+            System.out.println("Skipping " + paramsPath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads route endpoints in the format of the test parameter files: lines starting
+     * with # are comments, and every four remaining lines are stlon, stlat, destlon, destlat.
+     */
+    private static double[][] readRoutes(String path) throws IOException {
+        List<Double> values = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path))) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                values.add(Double.parseDouble(line));
+            }
+        }
+        double[][] routes = new double[values.size() / 4][4];
+        for (int i = 0; i < routes.length; i++) {
+            for (int k = 0; k < 4; k++) {
+                routes[i][k] = values.get(4 * i + k);
+            }
+        }
+        return routes;
+    }
+
+    /** Random start and end points inside the root tile, as {stlon, stlat, destlon, destlat}. */
+    private static double[][] randomRoutes(Random random, int count) {
+        double[][] routes = new double[count][4];
+        for (double[] route : routes) {
+            for (int k = 0; k < 4; k += 2) {
+                route[k] = MapServer.ROOT_ULLON
+                        + random.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+                route[k + 1] = MapServer.ROOT_LRLAT
+                        + random.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * Runs every routing algorithm over the same routes and reports time and settled
+     * vertices per query relative to plain A*, plus how many routes differ from Dijkstra's.
+     */
+    private static void benchmarkRoutes(GraphDB g, double[][] routes) {
+        Router.Algorithm[] algorithms = Router.Algorithm.values();
+        // Build the indexes up front; until they exist, their algorithms fall back to A*.
+        g.contractionHierarchy();
+        g.landmarks();
+        List<List<Long>> reference = new ArrayList<>(routes.length);
+        for (double[] r : routes) {
+            reference.add(Router.shortestPath(g, r[0], r[1], r[2], r[3],
+                    Router.Algorithm.DIJKSTRA));
+        }
+        long astarSettled = 0;
+        for (double[] r : routes) {
+            Router.shortestPath(g, r[0], r[1], r[2], r[3], Router.Algorithm.ASTAR);
+            astarSettled += Router.lastSettledCount();
+        }
+        for (Router.Algorithm algorithm : algorithms) {
+            long nanos = 0, settled = 0;
+            int mismatches = 0;
+            for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+                nanos = 0;
+                settled = 0;
+                mismatches = 0;
+                for (int i = 0; i < routes.length; i++) {
+                    double[] r = routes[i];
+                    long start = System.nanoTime();
+                    List<Long> path = Router.shortestPath(g, r[0], r[1], r[2], r[3], algorithm);
+                    nanos += System.nanoTime() - start;
+                    settled += Router.lastSettledCount();
+                    if (!path.equals(reference.get(i))) {
+                        mismatches++;
+                    }
+                }
+            }
+            System.out.println(String.format("%-22s %8.1f us/route %9.1f settled/route "
+                    + "(%.2fx A*), %d of %d routes differ from Dijkstra", algorithm,
+                    nanos / 1000.0 / routes.length, (double) settled / routes.length,
+                    (double) settled / Math.max(1, astarSettled), mismatches, routes.length));
+        }
+    }
+
+    /**
+     * Times Rasterer.getMapRaster on random query boxes, from a few pixels of the deepest
+     * tiles up to the whole root tile, in viewports of typical browser widths.
+     */
+    private static void benchmarkRaster(TileSet tileSet) {
+        Random random = new Random(61);
+        double rootWidth = tileSet.lrlon() - tileSet.ullon();
+        double rootHeight = tileSet.ullat() - tileSet.lrlat();
+        List<Map<String, Double>> queries = new ArrayList<>(QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            double width = rootWidth / (1 << random.nextInt(tileSet.maxDepth() + 2))
+                    * (0.5 + random.nextDouble());
+            double height = width * rootHeight / rootWidth;
+            Map<String, Double> params = new HashMap<>();
+            params.put("ullon", tileSet.ullon() + random.nextDouble() * (rootWidth - width));
+            params.put("ullat", tileSet.ullat() - random.nextDouble() * (rootHeight - height));
+            params.put("lrlon", params.get("ullon") + width);
+            params.put("lrlat", params.get("ullat") - height);
+            params.put("w", 800.0 + random.nextInt(1200));
+            params.put("h", 600.0 + random.nextInt(600));
+            queries.add(params);
+        }
+
+        Rasterer rasterer = new Rasterer(tileSet);
+        long nanos = 0, tiles = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            tiles = 0;
+            long start = System.nanoTime();
+            for (Map<String, Double> params : queries) {
+                String[][] grid = (String[][]) rasterer.getMapRaster(params).get("render_grid");
+                tiles += grid.length * grid[0].length;
+            }
+            nanos = System.nanoTime() - start;
+        }
+        sink += tiles;
+        System.out.println(String.format("getMapRaster on %s (max depth %d): %.0f ns/query, "
+                + "%.1f tiles/query", tileSet.name(), tileSet.maxDepth(),
+                (double) nanos / QUERIES, (double) tiles / QUERIES));
+    }
+
+    /** Times GraphDB.closest (k-d tree) against the linear scan it replaced. */
+    private static void benchmarkClosest(GraphDB g) {
+        Random random = new Random(61);
+        double[] lons = new double[QUERIES];
+        double[] lats = new double[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            lons[i] = MapServer.ROOT_ULLON
+                    + random.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+            lats[i] = MapServer.ROOT_LRLAT
+                    + random.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+        }
+
+        int mismatches = 0;
+        for (int i = 0; i < QUERIES / 10; i++) {
+            if (g.closest(lons[i], lats[i]) != g.closestByScan(lons[i], lats[i])) {
+                mismatches++;
+            }
+        }
+
+        long treeNanos = 0, scanNanos = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                sink += g.closest(lons[i], lats[i]);
+            }
+            treeNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES / 100; i++) {
+                sink += g.closestByScan(lons[i], lats[i]);
+            }
+            scanNanos = (System.nanoTime() - start) * 100;
+        }
+        System.out.println(String.format("closest over %d vertices: k-d tree %.0f ns/query, "
+                + "linear scan %.0f ns/query, %d mismatches in %d checks", g.getNodeSize(),
+                (double) treeNanos / QUERIES, (double) scanNanos / QUERIES, mismatches,
+                QUERIES / 10));
+    }
+
+    /**
+     * Times GraphDB.cleanString against the regex it replaced, on the raw location names
+     * (as when the graph is loaded) and on their cleaned forms (as most search terms are).
+     */
+    private static void benchmarkCleanString(GraphDB g) {
+        List<String> raw = new ArrayList<>();
+        List<String> cleaned = new ArrayList<>();
+        for (Node n : g.locations()) {
+            raw.add(n.getName());
+            cleaned.add(n.getCleanedName());
+        }
+        if (raw.isEmpty()) {
+            System.out.println("cleanString: no named locations to clean");
+            return;
+        }
+
+        int mismatches = 0;
+        for (String name : raw) {
+            if (!GraphDB.cleanString(name).equals(GraphDB.cleanStringByRegex(name))) {
+                mismatches++;
+            }
+        }
+        for (List<String> names : Arrays.asList(raw, cleaned)) {
+            long passNanos = 0, regexNanos = 0;
+            int rounds = Math.max(1, QUERIES / names.size());
+            for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int r = 0; r < rounds; r++) {
+                    for (String name : names) {
+                        sink += GraphDB.cleanString(name).length();
+                    }
+                }
+                passNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int r = 0; r < rounds; r++) {
+                    for (String name : names) {
+                        sink += GraphDB.cleanStringByRegex(name).length();
+                    }
+                }
+                regexNanos = System.nanoTime() - start;
+            }
+            long calls = (long) rounds * names.size();
+            System.out.println(String.format("cleanString on %d %s names: single pass %.0f "
+                    + "ns/call, regex %.0f ns/call", names.size(),
+                    names == raw ? "raw" : "cleaned", (double) passNanos / calls,
+                    (double) regexNanos / calls));
+        }
+        System.out.println(String.format("cleanString: %d mismatches in %d names", mismatches,
+                raw.size()));
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe map with a maximum total weight and a time to live. Entries expire once they
+ * have not been read or written for the time to live, and when the cache is full the least
+ * recently used entries are dropped to make room. Each entry weighs 1 unless a weigher is
+ * given, in which case the limit is e.g. a byte budget. Reads and writes are O(1); expired
+ * entries are swept lazily, oldest first, on every write.
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+public class BoundedCache<K, V> {
+    private final long maxWeight;
+    private final ToLongFunction<? super V> weigher;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    /** In access order, so iteration starts at the least recently used entry. */
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private long weight;
+
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+        long lastAccess;
+
+        Entry(V value, long weight, long lastAccess) {
+            this.value = value;
+            this.weight = weight;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * @param maxEntries Most entries kept at once.
+     * @param ttl How long an entry lives without being accessed.
+     * @param unit Unit of ttl.
+     */
+    public BoundedCache(int maxEntries, long ttl, TimeUnit unit) {
+        this(maxEntries, value -> 1, ttl, unit, System::nanoTime);
+    }
+
+    /**
+     * @param maxWeight Most total weight kept at once.
+     * @param weigher Weight of a value, e.g. its size in bytes.
+     * @param ttl How long an entry lives without being accessed.
+     * @param unit Unit of ttl.
+     */
+    public BoundedCache(long maxWeight, ToLongFunction<? super V> weigher, long ttl,
+                        TimeUnit unit) {
+        this(maxWeight, weigher, ttl, unit, System::nanoTime);
+    }
+
+    /** As above, with the clock (in nanoseconds) supplied by the caller, e.g. a test. */
+    BoundedCache(long maxWeight, ToLongFunction<? super V> weigher, long ttl, TimeUnit unit,
+                 LongSupplier clock) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /** Returns the value for key, or null if there is none or it has expired. */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        if (expired(entry, now)) {
+            entries.remove(key);
+            weight -= entry.weight;
+            return null;
+        }
+        entry.lastAccess = now;
+        return entry.value;
+    }
+
+    /**
+     * Maps key to value, evicting expired and then least recently used entries. A value
+     * heavier than the whole cache is not stored.
+     */
+    public synchronized void put(K key, V value) {
+        long now = clock.getAsLong();
+        Entry<V> added = new Entry<>(value, weigher.applyAsLong(value), now);
+        Entry<V> previous = entries.put(key, added);
+        weight += added.weight - (previous == null ? 0 : previous.weight);
+        Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Entry<V> entry = eldest.next().getValue();
+            if (weight <= maxWeight && !expired(entry, now)) {
+                break;
+            }
+            eldest.remove();
+            weight -= entry.weight;
+        }
+    }
+
+    /** Removes the value for key, returning it if it had not expired. */
+    public synchronized V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        weight -= entry.weight;
+        return expired(entry, clock.getAsLong()) ? null : entry.value;
+    }
+
+    /** Removes every entry. */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /** Number of entries, possibly including some that have expired but not been swept. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Total weight of the entries counted by size(). */
+    public synchronized long weight() {
+        return weight;
+    }
+
+    private boolean expired(Entry<V> entry, long now) {
+        return now - entry.lastAccess >= ttlNanos;
+    }
+}
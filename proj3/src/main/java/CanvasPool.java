@@ -0,0 +1,62 @@
+import java.awt.image.BufferedImage;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable TYPE_INT_RGB images for compositing rasters, bucketed by size. A raster is a
+ * whole number of tiles in each direction, so a handful of grid sizes cover most requests
+ * and their multi-megabyte pixel arrays can be recycled instead of reallocated. At most
+ * maxBytes of pixels are kept idle across all buckets; images released beyond that are
+ * left to the garbage collector.
+ *
+ * A reused image still holds the pixels of its last use, so callers must overwrite all of
+ * it.
+ */
+public class CanvasPool {
+    private final long maxBytes;
+    private final ConcurrentHashMap<Long, Queue<BufferedImage>> buckets =
+            new ConcurrentHashMap<>();
+    private final AtomicLong idleBytes = new AtomicLong();
+
+    /** @param maxBytes Most bytes of idle images kept for reuse. */
+    public CanvasPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** Returns an idle image of the given size, or a new one if there is none. */
+    public BufferedImage acquire(int width, int height) {
+        Queue<BufferedImage> bucket = buckets.get(key(width, height));
+        BufferedImage canvas = bucket == null ? null : bucket.poll();
+        if (canvas == null) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        idleBytes.addAndGet(-sizeOf(canvas));
+        return canvas;
+    }
+
+    /** Hands an image back for reuse; the caller must not touch it afterwards. */
+    public void release(BufferedImage canvas) {
+        long size = sizeOf(canvas);
+        if (idleBytes.addAndGet(size) > maxBytes) {
+            idleBytes.addAndGet(-size);
+            return;
+        }
+        buckets.computeIfAbsent(key(canvas.getWidth(), canvas.getHeight()),
+            k -> new ConcurrentLinkedQueue<>()).offer(canvas);
+    }
+
+    /** Bytes of pixels currently idle in the pool. */
+    public long idleBytes() {
+        return idleBytes.get();
+    }
+
+    private static Long key(int width, int height) {
+        return ((long) width << 32) | height;
+    }
+
+    private static long sizeOf(BufferedImage canvas) {
+        return (long) canvas.getWidth() * canvas.getHeight() * Integer.BYTES;
+    }
+}
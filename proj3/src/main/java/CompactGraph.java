@@ -0,0 +1,242 @@
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Frozen, read-only copy of the road graph in compressed sparse row (CSR) form.
+ * GraphDB builds one of these in clean() once parsing is done, and the hot paths
+ * (adjacent, lon, lat, distance and the Router searches) run against it instead of
+ * chasing Node objects through HashMaps.
+ *
+ * Vertices are renumbered to dense indices 0..size()-1 in ascending OSM id order, so an
+ * OSM id is mapped back to its index with a binary search over ids. The neighbours of
+ * vertex i are targets[offsets[i]] .. targets[offsets[i + 1] - 1], and weights holds the
+ * great-circle length of each of those edges in miles.
+ *
+ * The arrays are held as read-only buffers: heap buffers over plain arrays when the graph
+ * is built from nodes, or views straight into a memory-mapped GraphSnapshot when it is
+ * loaded, so processes serving the same snapshot share one copy in the page cache.
+ */
+public class CompactGraph {
+    /** Rough object header and array header sizes on a 64-bit JVM with compressed oops. */
+    static final int OBJECT_HEADER_BYTES = 12;
+    static final int ARRAY_HEADER_BYTES = 16;
+    static final int REFERENCE_BYTES = 4;
+
+    private final LongBuffer ids;
+    private final DoubleBuffer lons;
+    private final DoubleBuffer lats;
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+    private final DoubleBuffer weights;
+
+    /**
+     * Builds the CSR arrays from the cleaned object graph. Parallel edges and self loops
+     * (a way visiting the same node twice, or two ways sharing a segment) are dropped.
+     * @param nodes The connected nodes of the graph.
+     */
+    CompactGraph(Collection<Node> nodes) {
+        int n = nodes.size();
+        long[] ids = new long[n];
+        int i = 0;
+        for (Node node : nodes) {
+            ids[i++] = node.getId();
+        }
+        Arrays.sort(ids);
+
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        int[] offsets = new int[n + 1];
+        int edgeCount = 0;
+        for (Node node : nodes) {
+            edgeCount += node.getAdjacentNodes().size();
+        }
+        int[] scratchTargets = new int[edgeCount];
+
+        Node[] byIndex = new Node[n];
+        for (Node node : nodes) {
+            byIndex[Arrays.binarySearch(ids, node.getId())] = node;
+        }
+        int e = 0;
+        for (int v = 0; v < n; v++) {
+            Node node = byIndex[v];
+            lons[v] = node.getLon();
+            lats[v] = node.getLat();
+            offsets[v] = e;
+            List<Node> adjacent = node.getAdjacentNodes();
+            int first = e;
+            for (Node w : adjacent) {
+                int t = Arrays.binarySearch(ids, w.getId());
+                if (t < 0 || t == v || contains(scratchTargets, first, e, t)) {
+                    continue;
+                }
+                scratchTargets[e++] = t;
+            }
+            Arrays.sort(scratchTargets, first, e);
+        }
+        offsets[n] = e;
+        int[] targets = Arrays.copyOf(scratchTargets, e);
+        double[] weights = new double[e];
+        for (int v = 0; v < n; v++) {
+            for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+                weights[k] = GraphDB.distance(lons[v], lats[v], lons[targets[k]], lats[targets[k]]);
+            }
+        }
+        this.ids = LongBuffer.wrap(ids).asReadOnlyBuffer();
+        this.lons = DoubleBuffer.wrap(lons).asReadOnlyBuffer();
+        this.lats = DoubleBuffer.wrap(lats).asReadOnlyBuffer();
+        this.offsets = IntBuffer.wrap(offsets).asReadOnlyBuffer();
+        this.targets = IntBuffer.wrap(targets).asReadOnlyBuffer();
+        this.weights = DoubleBuffer.wrap(weights).asReadOnlyBuffer();
+    }
+
+    /**
+     * Wraps buffers that were already laid out in CSR form, e.g. views of a mapped snapshot.
+     * They are used from their current positions and must not change afterwards.
+     */
+    CompactGraph(LongBuffer ids, DoubleBuffer lons, DoubleBuffer lats, IntBuffer offsets,
+                 IntBuffer targets, DoubleBuffer weights) {
+        this.ids = ids.slice().asReadOnlyBuffer();
+        this.lons = lons.slice().asReadOnlyBuffer();
+        this.lats = lats.slice().asReadOnlyBuffer();
+        this.offsets = offsets.slice().asReadOnlyBuffer();
+        this.targets = targets.slice().asReadOnlyBuffer();
+        this.weights = weights.slice().asReadOnlyBuffer();
+    }
+
+    private static boolean contains(int[] a, int from, int to, int key) {
+        for (int k = from; k < to; k++) {
+            if (a[k] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Number of vertices. */
+    public int size() {
+        return ids.limit();
+    }
+
+    /** Number of directed edges, i.e. twice the number of road segments. */
+    public int edgeCount() {
+        return targets.limit();
+    }
+
+    /** Returns the dense index of OSM id, or -1 if it is not a vertex of the graph. */
+    public int indexOf(long id) {
+        int lo = 0;
+        int hi = ids.limit() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midId = ids.get(mid);
+            if (midId < id) {
+                lo = mid + 1;
+            } else if (midId > id) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public long id(int v) {
+        return ids.get(v);
+    }
+
+    public double lon(int v) {
+        return lons.get(v);
+    }
+
+    public double lat(int v) {
+        return lats.get(v);
+    }
+
+    /** First position of v's neighbours in targets/weights. */
+    public int firstEdge(int v) {
+        return offsets.get(v);
+    }
+
+    /** One past the last position of v's neighbours in targets/weights. */
+    public int endEdge(int v) {
+        return offsets.get(v + 1);
+    }
+
+    public int target(int e) {
+        return targets.get(e);
+    }
+
+    public double weight(int e) {
+        return weights.get(e);
+    }
+
+    public int degree(int v) {
+        return offsets.get(v + 1) - offsets.get(v);
+    }
+
+    /** Great-circle distance in miles between the vertices at dense indices v and w. */
+    public double distance(int v, int w) {
+        return GraphDB.distance(lons.get(v), lats.get(v), lons.get(w), lats.get(w));
+    }
+
+    /**
+     * CRC32 of the vertex ids and adjacency, so data derived from this graph and saved to
+     * disk (e.g. a ContractionHierarchy) can tell whether it still matches.
+     */
+    public long fingerprint() {
+        CRC32 crc = new CRC32();
+        ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+        for (int v = 0; v < size(); v++) {
+            buf.clear();
+            buf.putLong(ids.get(v));
+            crc.update(buf.array(), 0, Long.BYTES);
+        }
+        for (int v = 0; v <= size(); v++) {
+            buf.clear();
+            buf.putInt(offsets.get(v));
+            crc.update(buf.array(), 0, Integer.BYTES);
+        }
+        for (int e = 0; e < edgeCount(); e++) {
+            buf.clear();
+            buf.putInt(targets.get(e));
+            crc.update(buf.array(), 0, Integer.BYTES);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Approximate heap footprint of this graph in bytes. Buffers over a mapped snapshot
+     * live in the page cache and count only their headers.
+     */
+    public long memoryFootprint() {
+        return OBJECT_HEADER_BYTES + 6 * REFERENCE_BYTES
+                + bufferBytes(ids, Long.BYTES)
+                + bufferBytes(lons, Double.BYTES)
+                + bufferBytes(lats, Double.BYTES)
+                + bufferBytes(offsets, Integer.BYTES)
+                + bufferBytes(targets, Integer.BYTES)
+                + bufferBytes(weights, Double.BYTES);
+    }
+
+    /** Rough heap size of a buffer view: its header, plus its array unless it is direct. */
+    private static long bufferBytes(Buffer buffer, int elementBytes) {
+        long header = align(OBJECT_HEADER_BYTES + 4 * Integer.BYTES + Long.BYTES
+                + 2 * REFERENCE_BYTES);
+        return buffer.isDirect() ? header : header + arrayBytes(buffer.capacity(), elementBytes);
+    }
+
+    static long arrayBytes(long length, int elementBytes) {
+        return align(ARRAY_HEADER_BYTES + length * elementBytes);
+    }
+
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,573 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Contraction Hierarchies over a CompactGraph.
+ *
+ * Preprocessing ranks every vertex and contracts them from lowest to highest rank; when a
+ * vertex v is removed, a shortcut u-w of length d(u, v) + d(v, w) is added between any
+ * two remaining neighbours whose shortest path went through v. Each round contracts an
+ * independent set of vertices that are local minima of the priority (edge difference plus
+ * already-contracted neighbours), and the witness searches of a round run in parallel.
+ *
+ * What is kept is the upward graph: for every vertex, the original edges and shortcuts to
+ * neighbours of higher rank, each shortcut remembering the vertex it bypasses. Road edges
+ * are two-way, so the downward graph a backward search needs is this same graph read in
+ * reverse, and one copy serves both sides of the query. A query is a bidirectional
+ * Dijkstra that only ever relaxes upward edges; its result is unpacked back into the
+ * original vertices by recursively expanding shortcuts.
+ */
+public class ContractionHierarchy {
+    static final int MAGIC = 0x424d4348; // "BMCH"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8;
+    /** Witness searches give up after settling this many vertices and add the shortcut. */
+    private static final int WITNESS_SETTLE_LIMIT = 300;
+
+    private final CompactGraph graph;
+    private final int[] rank;
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    /** Vertex a shortcut bypasses, or -1 for an original edge. */
+    private final int[] upMiddles;
+
+    private ContractionHierarchy(CompactGraph graph, int[] rank, int[] upOffsets,
+                                 int[] upTargets, double[] upWeights, int[] upMiddles) {
+        this.graph = graph;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+    }
+
+    CompactGraph graph() {
+        return graph;
+    }
+
+    /** Number of shortcut edges in the upward graph. */
+    public int shortcutCount() {
+        int count = 0;
+        for (int middle : upMiddles) {
+            if (middle >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Contracts every vertex of g, using all available cores for the witness searches.
+     * @param g The graph to preprocess.
+     */
+    public static ContractionHierarchy build(CompactGraph g) {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            return pool.submit(() -> new Builder(g).build()).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Contraction failed", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Finds the shortest path from s to t with a bidirectional upward search.
+     * @param forward Scratch state for the search from s.
+     * @param backward Scratch state for the search from t.
+     * @return The dense vertex indices of the path from s to t, empty if t is unreachable.
+     */
+    List<Integer> shortestPath(SearchSpace forward, SearchSpace backward, int s, int t) {
+        forward.reset(s, 0.0);
+        backward.reset(t, 0.0);
+        double mu = s == t ? 0.0 : Double.POSITIVE_INFINITY;
+        int meet = s == t ? s : -1;
+
+        while (true) {
+            boolean forwardOpen = forward.hasNext() && forward.peekPriority() < mu;
+            boolean backwardOpen = backward.hasNext() && backward.peekPriority() < mu;
+            if (!forwardOpen && !backwardOpen) {
+                break;
+            }
+            boolean forwardTurn = forwardOpen
+                    && (!backwardOpen || forward.peekPriority() <= backward.peekPriority());
+            SearchSpace side = forwardTurn ? forward : backward;
+            SearchSpace other = forwardTurn ? backward : forward;
+
+            int v = side.settleNext();
+            double distV = side.distTo(v);
+            if (distV + other.distTo(v) < mu) {
+                mu = distV + other.distTo(v);
+                meet = v;
+            }
+            for (int e = upOffsets[v]; e < upOffsets[v + 1]; e++) {
+                int w = upTargets[e];
+                double distW = distV + upWeights[e];
+                if (side.relax(v, w, distW, distW) && distW + other.distTo(w) < mu) {
+                    mu = distW + other.distTo(w);
+                    meet = w;
+                }
+            }
+        }
+
+        LinkedList<Integer> path = new LinkedList<>();
+        if (meet < 0) {
+            return path;
+        }
+        LinkedList<Integer> hops = new LinkedList<>();
+        for (int v = meet; v != -1; v = forward.edgeTo(v)) {
+            hops.addFirst(v);
+        }
+        for (int v = backward.edgeTo(meet); v != -1; v = backward.edgeTo(v)) {
+            hops.addLast(v);
+        }
+        path.add(s);
+        int previous = s;
+        for (int v : hops.subList(1, hops.size())) {
+            unpack(previous, v, path);
+            previous = v;
+        }
+        return path;
+    }
+
+    /** Appends the original vertices after a on the edge or shortcut from a to b. */
+    private void unpack(int a, int b, List<Integer> path) {
+        int low = rank[a] < rank[b] ? a : b;
+        int high = low == a ? b : a;
+        int middle = -1;
+        for (int e = upOffsets[low]; e < upOffsets[low + 1]; e++) {
+            if (upTargets[e] == high) {
+                middle = upMiddles[e];
+                break;
+            }
+        }
+        if (middle < 0) {
+            path.add(b);
+        } else {
+            unpack(a, middle, path);
+            unpack(middle, b, path);
+        }
+    }
+
+    /**
+     * Writes the hierarchy next to a graph snapshot. The file records a fingerprint of the
+     * graph it was built for, so it is never applied to a different graph.
+     */
+    public void write(File out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeInt(rank.length);
+        for (int r : rank) {
+            payload.writeInt(r);
+        }
+        for (int offset : upOffsets) {
+            payload.writeInt(offset);
+        }
+        payload.writeInt(upTargets.length);
+        for (int target : upTargets) {
+            payload.writeInt(target);
+        }
+        for (double weight : upWeights) {
+            payload.writeDouble(weight);
+        }
+        for (int middle : upMiddles) {
+            payload.writeInt(middle);
+        }
+        payload.flush();
+
+        byte[] body = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(out))) {
+            DataOutputStream header = new DataOutputStream(os);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(graph.fingerprint());
+            header.writeLong(body.length);
+            header.writeLong(crc.getValue());
+            header.write(body);
+            header.flush();
+        }
+    }
+
+    /**
+     * Maps a hierarchy written by write().
+     * @return The hierarchy, or null if the file is missing, corrupt, from another format
+     * version or built for a different graph than g.
+     */
+    public static ContractionHierarchy read(File in, CompactGraph g) {
+        if (!in.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+                    || buf.getLong() != g.fingerprint()) {
+                return null;
+            }
+            long payloadLength = buf.getLong();
+            long checksum = buf.getLong();
+            if (payloadLength != channel.size() - HEADER_BYTES) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buf.slice());
+            if (crc.getValue() != checksum) {
+                return null;
+            }
+
+            int n = buf.getInt();
+            int[] rank = new int[n];
+            buf.asIntBuffer().get(rank);
+            skip(buf, n * Integer.BYTES);
+            int[] upOffsets = new int[n + 1];
+            buf.asIntBuffer().get(upOffsets);
+            skip(buf, (n + 1) * Integer.BYTES);
+            int m = buf.getInt();
+            int[] upTargets = new int[m];
+            buf.asIntBuffer().get(upTargets);
+            skip(buf, m * Integer.BYTES);
+            double[] upWeights = new double[m];
+            buf.asDoubleBuffer().get(upWeights);
+            skip(buf, m * Double.BYTES);
+            int[] upMiddles = new int[m];
+            buf.asIntBuffer().get(upMiddles);
+            return new ContractionHierarchy(g, rank, upOffsets, upTargets, upWeights, upMiddles);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void skip(ByteBuffer buf, int bytes) {
+        buf.position(buf.position() + bytes);
+    }
+
+    /** Mutable state of the contraction; only lives for the duration of build(). */
+    private static class Builder {
+        private final CompactGraph g;
+        private final int n;
+        /** Remaining (uncontracted) neighbours of each vertex, with weight and middle. */
+        private final int[][] adjacent;
+        private final double[][] weights;
+        private final int[][] middles;
+        private final int[] degree;
+
+        private final boolean[] contracted;
+        /** Vertices being contracted in the current round; witness paths avoid them. */
+        private final boolean[] inRound;
+        private final int[] deletedNeighbors;
+        private final int[] priority;
+        private final int[] rank;
+
+        private final int[][] upTargets;
+        private final double[][] upWeights;
+        private final int[][] upMiddles;
+
+        private final ThreadLocal<Witness> witnesses;
+
+        Builder(CompactGraph g) {
+            this.g = g;
+            n = g.size();
+            adjacent = new int[n][];
+            weights = new double[n][];
+            middles = new int[n][];
+            degree = new int[n];
+            for (int v = 0; v < n; v++) {
+                int d = g.degree(v);
+                adjacent[v] = new int[Math.max(d, 2)];
+                weights[v] = new double[Math.max(d, 2)];
+                middles[v] = new int[Math.max(d, 2)];
+                for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+                    adjacent[v][degree[v]] = g.target(e);
+                    weights[v][degree[v]] = g.weight(e);
+                    middles[v][degree[v]] = -1;
+                    degree[v]++;
+                }
+            }
+            contracted = new boolean[n];
+            inRound = new boolean[n];
+            deletedNeighbors = new int[n];
+            priority = new int[n];
+            rank = new int[n];
+            upTargets = new int[n][];
+            upWeights = new double[n][];
+            upMiddles = new int[n][];
+            witnesses = ThreadLocal.withInitial(() -> new Witness(n));
+        }
+
+        ContractionHierarchy build() {
+            IntStream.range(0, n).parallel().forEach(v -> priority[v] = computePriority(v));
+
+            int[] remaining = new int[n];
+            for (int v = 0; v < n; v++) {
+                remaining[v] = v;
+            }
+            int remainingCount = n;
+            int nextRank = 0;
+            while (remainingCount > 0) {
+                int[] round = independentSet(remaining, remainingCount);
+                for (int v : round) {
+                    inRound[v] = true;
+                }
+                Shortcuts[] shortcuts = new Shortcuts[round.length];
+                IntStream.range(0, round.length).parallel()
+                        .forEach(i -> shortcuts[i] = findShortcuts(round[i]));
+
+                for (int i = 0; i < round.length; i++) {
+                    contract(round[i], shortcuts[i]);
+                    rank[round[i]] = nextRank++;
+                }
+                int[] touched = neighborsOf(round);
+                IntStream.range(0, touched.length).parallel()
+                        .forEach(i -> priority[touched[i]] = computePriority(touched[i]));
+
+                int kept = 0;
+                for (int k = 0; k < remainingCount; k++) {
+                    if (!contracted[remaining[k]]) {
+                        remaining[kept++] = remaining[k];
+                    }
+                }
+                remainingCount = kept;
+            }
+            return flatten();
+        }
+
+        /** Vertices whose (priority, index) is smaller than that of every remaining neighbour. */
+        private int[] independentSet(int[] remaining, int remainingCount) {
+            return IntStream.range(0, remainingCount).parallel().map(k -> remaining[k])
+                    .filter(this::isLocalMinimum).toArray();
+        }
+
+        private boolean isLocalMinimum(int v) {
+            for (int k = 0; k < degree[v]; k++) {
+                int u = adjacent[v][k];
+                if (priority[u] < priority[v] || (priority[u] == priority[v] && u < v)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int[] neighborsOf(int[] round) {
+            boolean[] seen = new boolean[n];
+            int[] result = new int[n];
+            int count = 0;
+            for (int v : round) {
+                for (int k = 0; k < upTargets[v].length; k++) {
+                    int u = upTargets[v][k];
+                    if (!seen[u]) {
+                        seen[u] = true;
+                        result[count++] = u;
+                    }
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+
+        private int computePriority(int v) {
+            int shortcutCount = findShortcuts(v).size;
+            return 2 * (shortcutCount - degree[v]) + deletedNeighbors[v];
+        }
+
+        /**
+         * Simulates contracting v: for every pair of remaining neighbours u, w, runs a
+         * witness search from u that avoids v (and the rest of the current round) and
+         * keeps the shortcut u-w unless it finds a path no longer than d(u, v) + d(v, w).
+         * Only reads the shared state, so it is safe to run for many vertices at once.
+         */
+        private Shortcuts findShortcuts(int v) {
+            Shortcuts result = new Shortcuts();
+            Witness witness = witnesses.get();
+            int d = degree[v];
+            for (int i = 0; i < d - 1; i++) {
+                int u = adjacent[v][i];
+                double viaV = weights[v][i];
+                double maxOut = 0;
+                for (int j = i + 1; j < d; j++) {
+                    maxOut = Math.max(maxOut, weights[v][j]);
+                }
+                witness.search(u, v, viaV + maxOut, adjacent[v], i + 1, d);
+                for (int j = i + 1; j < d; j++) {
+                    int w = adjacent[v][j];
+                    double length = viaV + weights[v][j];
+                    if (witness.distTo(w) > length) {
+                        result.add(u, w, length);
+                    }
+                }
+            }
+            return result;
+        }
+
+        /** Removes v from the graph, recording its upward edges and adding its shortcuts. */
+        private void contract(int v, Shortcuts shortcuts) {
+            int d = degree[v];
+            upTargets[v] = Arrays.copyOf(adjacent[v], d);
+            upWeights[v] = Arrays.copyOf(weights[v], d);
+            upMiddles[v] = Arrays.copyOf(middles[v], d);
+            contracted[v] = true;
+            inRound[v] = false;
+            for (int k = 0; k < d; k++) {
+                int u = adjacent[v][k];
+                removeEdge(u, v);
+                deletedNeighbors[u]++;
+            }
+            degree[v] = 0;
+            for (int k = 0; k < shortcuts.size; k++) {
+                addEdge(shortcuts.from[k], shortcuts.to[k], shortcuts.length[k], v);
+                addEdge(shortcuts.to[k], shortcuts.from[k], shortcuts.length[k], v);
+            }
+        }
+
+        private void removeEdge(int u, int v) {
+            for (int k = 0; k < degree[u]; k++) {
+                if (adjacent[u][k] == v) {
+                    int last = --degree[u];
+                    adjacent[u][k] = adjacent[u][last];
+                    weights[u][k] = weights[u][last];
+                    middles[u][k] = middles[u][last];
+                    return;
+                }
+            }
+        }
+
+        private void addEdge(int u, int w, double length, int middle) {
+            for (int k = 0; k < degree[u]; k++) {
+                if (adjacent[u][k] == w) {
+                    if (length < weights[u][k]) {
+                        weights[u][k] = length;
+                        middles[u][k] = middle;
+                    }
+                    return;
+                }
+            }
+            if (degree[u] == adjacent[u].length) {
+                int capacity = adjacent[u].length * 2;
+                adjacent[u] = Arrays.copyOf(adjacent[u], capacity);
+                weights[u] = Arrays.copyOf(weights[u], capacity);
+                middles[u] = Arrays.copyOf(middles[u], capacity);
+            }
+            adjacent[u][degree[u]] = w;
+            weights[u][degree[u]] = length;
+            middles[u][degree[u]] = middle;
+            degree[u]++;
+        }
+
+        private ContractionHierarchy flatten() {
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] = offsets[v] + upTargets[v].length;
+            }
+            int[] targets = new int[offsets[n]];
+            double[] flatWeights = new double[offsets[n]];
+            int[] flatMiddles = new int[offsets[n]];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(upTargets[v], 0, targets, offsets[v], upTargets[v].length);
+                System.arraycopy(upWeights[v], 0, flatWeights, offsets[v], upWeights[v].length);
+                System.arraycopy(upMiddles[v], 0, flatMiddles, offsets[v], upMiddles[v].length);
+            }
+            return new ContractionHierarchy(g, rank, offsets, targets, flatWeights, flatMiddles);
+        }
+
+        /** Bounded Dijkstra over the remaining graph, one per worker thread. */
+        private class Witness {
+            private final double[] distTo;
+            private final int[] visited;
+            private final int[] target;
+            private final IndexMinPQ fringe;
+            private int search;
+
+            Witness(int n) {
+                distTo = new double[n];
+                visited = new int[n];
+                target = new int[n];
+                fringe = new IndexMinPQ(n);
+            }
+
+            double distTo(int v) {
+                return visited[v] == search ? distTo[v] : Double.POSITIVE_INFINITY;
+            }
+
+            /**
+             * Settles vertices from source, never through avoid, until every vertex in
+             * targets[from, to) is settled, the fringe passes maxDistance, or the settle
+             * limit is hit.
+             */
+            void search(int source, int avoid, double maxDistance, int[] targets, int from,
+                        int to) {
+                search++;
+                fringe.clear();
+                for (int k = from; k < to; k++) {
+                    target[targets[k]] = search;
+                }
+                int targetsLeft = to - from;
+                visited[source] = search;
+                distTo[source] = 0.0;
+                fringe.insertOrDecrease(source, 0.0);
+                int settled = 0;
+                while (!fringe.isEmpty() && settled < WITNESS_SETTLE_LIMIT && targetsLeft > 0) {
+                    if (fringe.minKey() > maxDistance) {
+                        return;
+                    }
+                    int x = fringe.delMin();
+                    settled++;
+                    if (target[x] == search) {
+                        targetsLeft--;
+                    }
+                    for (int k = 0; k < degree[x]; k++) {
+                        int y = adjacent[x][k];
+                        if (y == avoid || inRound[y]) {
+                            continue;
+                        }
+                        double distY = distTo[x] + weights[x][k];
+                        if (distY < distTo(y)) {
+                            visited[y] = search;
+                            distTo[y] = distY;
+                            fringe.insertOrDecrease(y, distY);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Shortcuts found for one contracted vertex. */
+    private static class Shortcuts {
+        int[] from = new int[4];
+        int[] to = new int[4];
+        double[] length = new double[4];
+        int size;
+
+        void add(int u, int w, double l) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+                length = Arrays.copyOf(length, size * 2);
+            }
+            from[size] = u;
+            to[size] = w;
+            length[size] = l;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Planar geometry helpers over {lon, lat} points. Distances here are in degrees, which is
+ * fine at the scale of one city for deciding which points matter to a drawn shape, but
+ * not for measuring anything; use GraphDB.distance for that.
+ */
+public class Geometry {
+    /**
+     * Returns the convex hull of points in counter-clockwise order, without repeating the
+     * first point, using Andrew's monotone chain in O(n log n).
+     */
+    public static List<double[]> convexHull(List<double[]> points) {
+        double[][] sorted = points.toArray(new double[0][]);
+        Arrays.sort(sorted, (a, b) -> a[0] != b[0]
+                ? Double.compare(a[0], b[0]) : Double.compare(a[1], b[1]));
+        int n = sorted.length;
+        if (n < 3) {
+            return new ArrayList<>(Arrays.asList(sorted));
+        }
+        double[][] hull = new double[2 * n][];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            while (k >= 2 && cross(hull[k - 2], hull[k - 1], sorted[i]) <= 0) {
+                k--;
+            }
+            hull[k++] = sorted[i];
+        }
+        for (int i = n - 2, lower = k + 1; i >= 0; i--) {
+            while (k >= lower && cross(hull[k - 2], hull[k - 1], sorted[i]) <= 0) {
+                k--;
+            }
+            hull[k++] = sorted[i];
+        }
+        return new ArrayList<>(Arrays.asList(hull).subList(0, k - 1));
+    }
+
+    /** Positive if o, a, b turn counter-clockwise, negative if clockwise, 0 if collinear. */
+    private static double cross(double[] o, double[] a, double[] b) {
+        return (a[0] - o[0]) * (b[1] - o[1]) - (a[1] - o[1]) * (b[0] - o[0]);
+    }
+
+    /**
+     * Simplifies an open polyline with the Douglas-Peucker algorithm: keeps the endpoints
+     * and recursively keeps the point farthest from the current segment while it is more
+     * than tolerance away.
+     * @param line The polyline.
+     * @param tolerance Largest distance, in degrees, a dropped point may be from the result.
+     * @return The kept points, in order.
+     */
+    public static List<double[]> simplify(List<double[]> line, double tolerance) {
+        int n = line.size();
+        if (n < 3) {
+            return new ArrayList<>(line);
+        }
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        simplify(line, 0, n - 1, tolerance, keep);
+        List<double[]> result = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                result.add(line.get(i));
+            }
+        }
+        return result;
+    }
+
+    private static void simplify(List<double[]> line, int first, int last, double tolerance,
+                                 boolean[] keep) {
+        int farthest = -1;
+        double farthestDistance = tolerance;
+        for (int i = first + 1; i < last; i++) {
+            double d = segmentDistance(line.get(i), line.get(first), line.get(last));
+            if (d > farthestDistance) {
+                farthestDistance = d;
+                farthest = i;
+            }
+        }
+        if (farthest >= 0) {
+            keep[farthest] = true;
+            simplify(line, first, farthest, tolerance, keep);
+            simplify(line, farthest, last, tolerance, keep);
+        }
+    }
+
+    /**
+     * Simplifies a closed ring with Douglas-Peucker, splitting it at its first point and
+     * the point farthest from it so both halves are simplified as open lines.
+     * @param ring The ring, without repeating its first point.
+     * @param tolerance Largest distance, in degrees, a dropped point may be from the result.
+     */
+    public static List<double[]> simplifyRing(List<double[]> ring, double tolerance) {
+        int n = ring.size();
+        if (n <= 3) {
+            return new ArrayList<>(ring);
+        }
+        int split = 1;
+        for (int i = 2; i < n; i++) {
+            if (distance(ring.get(0), ring.get(i)) > distance(ring.get(0), ring.get(split))) {
+                split = i;
+            }
+        }
+        List<double[]> first = simplify(ring.subList(0, split + 1), tolerance);
+        List<double[]> second = new ArrayList<>(ring.subList(split, n));
+        second.add(ring.get(0));
+        second = simplify(second, tolerance);
+        List<double[]> result = new ArrayList<>(first);
+        result.addAll(second.subList(1, second.size() - 1));
+        return result;
+    }
+
+    /**
+     * Simplifies a convex hull into a convex polygon that still covers it. simplifyRing
+     * only drops corners, which leaves them outside the result, so each kept edge is then
+     * pushed outward as far as the farthest corner it dropped, and adjacent edges are
+     * joined where the pushed lines meet.
+     * @param hull A convex hull in counter-clockwise order, as from convexHull.
+     * @param tolerance Largest distance, in degrees, a dropped corner may be from the
+     *                  simplified ring, and so the farthest an edge is pushed.
+     * @return The corners of the covering polygon, counter-clockwise.
+     */
+    public static List<double[]> simplifyHull(List<double[]> hull, double tolerance) {
+        List<double[]> ring = simplifyRing(hull, tolerance);
+        int m = ring.size();
+        if (m < 3 || m == hull.size()) {
+            return ring;
+        }
+        // simplifyRing keeps hull.get(0) first and the rest in order, so each kept edge j
+        // runs from ring.get(j) past the dropped corners up to ring.get(j + 1).
+        double[][] starts = new double[m][];
+        double[][] directions = new double[m][];
+        int at = 0;
+        for (int j = 0; j < m; j++) {
+            double[] a = ring.get(j);
+            double[] b = ring.get((j + 1) % m);
+            double dx = b[0] - a[0];
+            double dy = b[1] - a[1];
+            double length = Math.hypot(dx, dy);
+            // The outward normal of a counter-clockwise edge is on its right.
+            double nx = dy / length;
+            double ny = -dx / length;
+            double push = 0;
+            for (at++; at < hull.size() && hull.get(at) != b; at++) {
+                double[] p = hull.get(at);
+                push = Math.max(push, (p[0] - a[0]) * nx + (p[1] - a[1]) * ny);
+            }
+            starts[j] = new double[]{a[0] + push * nx, a[1] + push * ny};
+            directions[j] = new double[]{dx, dy};
+        }
+        List<double[]> result = new ArrayList<>(m);
+        for (int j = 0; j < m; j++) {
+            int previous = (j + m - 1) % m;
+            result.add(intersect(starts[previous], directions[previous], starts[j],
+                    directions[j]));
+        }
+        return result;
+    }
+
+    /** Where the line through p in direction d meets the line through q in direction e. */
+    private static double[] intersect(double[] p, double[] d, double[] q, double[] e) {
+        double t = ((q[0] - p[0]) * e[1] - (q[1] - p[1]) * e[0]) / (d[0] * e[1] - d[1] * e[0]);
+        return new double[]{p[0] + t * d[0], p[1] + t * d[1]};
+    }
+
+    private static double distance(double[] a, double[] b) {
+        return Math.hypot(a[0] - b[0], a[1] - b[1]);
+    }
+
+    /** Distance from p to the segment from a to b. */
+    static double segmentDistance(double[] p, double[] a, double[] b) {
+        double dx = b[0] - a[0];
+        double dy = b[1] - a[1];
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return distance(p, a);
+        }
+        double t = ((p[0] - a[0]) * dx + (p[1] - a[1]) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(p[0] - (a[0] + t * dx), p[1] - (a[1] + t * dy));
+    }
+}
@@ -7,6 +7,7 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.lang.reflect.Array;
+import java.text.Normalizer;
 import java.util.*;
 
 /**
@@ -22,23 +23,46 @@ public class GraphDB {
     /** Your instance variables for storing the graph. You should consider
      * creating helper classes, e.g. Node, Way, etc. */
 
+    /** Most ranked prefix matches a search may ask for; prefixTree precomputes this many. */
+    static final int MAX_PREFIX_LIMIT = 100;
+    /** Time a fuzzy search may take before it returns the best names found so far. */
+    static final long FUZZY_BUDGET_NANOS = 5_000_000;
+    /** Strings up to this long are cleaned in a per-thread buffer that is reused. */
+    private static final int CLEAN_BUFFER_CHARS = 256;
+    private static final ThreadLocal<StringBuilder> CLEAN_BUFFER =
+            ThreadLocal.withInitial(() -> new StringBuilder(CLEAN_BUFFER_CHARS));
+
     private HashMap<Long, Node> nodes; //connected unnamed shit..
     private HashMap<Long, Way> ways;
     private HashMap<Long, Node> locations; //nodes of locations...
     private HashMap<String, List<Node>> cleanedLocations;
-    private TrieSet<Node> prefixTree;
+    /** Cleaned location names, rebuilt from cleanedLocations by cleanLocations. */
+    private RadixTrie<Node> prefixTree;
+    /** The words of cleaned location names, rebuilt alongside prefixTree. */
+    private TokenIndex<Node> tokenIndex;
+    /** Read-only CSR copy of the cleaned road graph, built at the end of clean(). */
+    private CompactGraph compact;
+    /** Nearest-vertex index over compact, built alongside it. */
+    private KdTree spatialIndex;
+    /**
+     * Loaded from disk by loadContractionHierarchy, or built by contractionHierarchy();
+     * volatile so routing can read it without waiting for a build in progress.
+     */
+    private volatile ContractionHierarchy hierarchy;
+    /**
+     * ALT distance tables over compact, built by landmarks() and dropped when it changes;
+     * volatile so routing can read them without waiting for a build in progress.
+     */
+    private volatile Landmarks landmarks;
+    /** Guards building landmarks, apart from the hierarchy so neither build waits on the other. */
+    private final Object landmarksLock = new Object();
     /**
      * Example constructor shows how to create and start an XML parser.
      * You do not need to modify this constructor, but you're welcome to do so.
      * @param dbPath Path to the XML file to be parsed.
      */
     public GraphDB(String dbPath) {
-        nodes = new HashMap<>();
-        ways = new HashMap<>();
-        locations = new HashMap<>();
-        cleanedLocations = new HashMap<>();
-        prefixTree = new TrieSet<>();
-
+        this();
         try {
             File inputFile = new File(dbPath);
             FileInputStream inputStream = new FileInputStream(inputFile);
@@ -55,6 +79,34 @@ public class GraphDB {
         cleanLocations();
     }
 
+    /**
+     * Creates an empty graph. GraphSnapshot fills it in with the restore methods below
+     * instead of parsing XML.
+     */
+    GraphDB() {
+        nodes = new HashMap<>();
+        ways = new HashMap<>();
+        locations = new HashMap<>();
+        cleanedLocations = new HashMap<>();
+        prefixTree = new RadixTrie<>(cleanedLocations, MAX_PREFIX_LIMIT);
+        tokenIndex = new TokenIndex<>(cleanedLocations);
+    }
+
+    /**
+     * Loads the graph from the binary snapshot at snapshotPath if it is present, intact and
+     * newer than the XML file at dbPath, and otherwise falls back to parsing the XML.
+     * @param dbPath Path to the OSM XML file.
+     * @param snapshotPath Path to a snapshot written by GraphSnapshotLauncher.
+     */
+    public static GraphDB load(String dbPath, String snapshotPath) {
+        GraphDB g = GraphSnapshot.read(new File(snapshotPath), new File(dbPath));
+        if (g != null) {
+            return g;
+        }
+        System.out.println("No usable snapshot at " + snapshotPath + ", parsing " + dbPath);
+        return new GraphDB(dbPath);
+    }
+
     /**
      *  Remove nodes with no connections from the graph.
      *  While this does not guarantee that any two nodes in the remaining graph are connected,
@@ -64,10 +116,13 @@ public class GraphDB {
         Iterator<Node> i = this.locations.values().iterator();
         while (i.hasNext()) {
             Node n = i.next();
-            n.setCleanedName(cleanString(n.getName()));
+            if (n.getCleanedName() == null) {
+                n.setCleanedName(cleanString(n.getName()));
+            }
             addToCleanedLocations(n.getCleanedName(), n);
-            prefixTree.put(n.getCleanedName(), n);
         }
+        prefixTree = new RadixTrie<>(cleanedLocations, MAX_PREFIX_LIMIT);
+        tokenIndex = new TokenIndex<>(cleanedLocations);
     }
 
     private void addToCleanedLocations(String cleanedName, Node n) {
@@ -85,6 +140,55 @@ public class GraphDB {
      * @return Cleaned string.
      */
     static String cleanString(String s) {
+        return cleanString(s, false);
+    }
+
+    /**
+     * Cleans s in one pass over its characters: ASCII letters are lowercased, spaces kept
+     * and everything else dropped, as the regex in cleanStringByRegex does. A string that is
+     * already clean, such as most search terms, is returned as is.
+     * @param foldAccents Whether to keep the base letters of accented Latin letters, so
+     *                    "Caf\u00e9" cleans to "cafe" rather than "caf".
+     */
+    static String cleanString(String s, boolean foldAccents) {
+        int n = s.length();
+        int clean = 0;
+        while (clean < n && (s.charAt(clean) >= 'a' && s.charAt(clean) <= 'z'
+                || s.charAt(clean) == ' ')) {
+            clean++;
+        }
+        if (clean == n) {
+            return s;
+        }
+        StringBuilder buf = n <= CLEAN_BUFFER_CHARS ? CLEAN_BUFFER.get() : new StringBuilder(n);
+        buf.setLength(0);
+        buf.append(s, 0, clean);
+        for (int i = clean; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 'a' && c <= 'z' || c == ' ') {
+                buf.append(c);
+            } else if (c >= 'A' && c <= 'Z') {
+                buf.append((char) (c + ('a' - 'A')));
+            } else if (foldAccents && c > 0x7f) {
+                String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+                for (int j = 0; j < decomposed.length(); j++) {
+                    char d = decomposed.charAt(j);
+                    if (d >= 'a' && d <= 'z') {
+                        buf.append(d);
+                    } else if (d >= 'A' && d <= 'Z') {
+                        buf.append((char) (d + ('a' - 'A')));
+                    }
+                }
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Regex version of cleanString that the single pass replaced. Kept for benchmarking
+     * and as a reference for tests.
+     */
+    static String cleanStringByRegex(String s) {
         return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
     }
 
@@ -102,6 +206,128 @@ public class GraphDB {
                 i.remove();
             }
         }
+        compact = new CompactGraph(this.nodes.values());
+        spatialIndex = new KdTree(compact);
+        landmarks = null;
+    }
+
+    /**
+     * Returns the Contraction Hierarchy over compact(), building it on the first call if
+     * none was loaded with loadContractionHierarchy. The build takes seconds on a city, so
+     * the server runs it in the background at startup rather than on a request thread.
+     */
+    synchronized ContractionHierarchy contractionHierarchy() {
+        if (hierarchy == null) {
+            hierarchy = ContractionHierarchy.build(compact);
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Returns the Contraction Hierarchy if it has been loaded or built, without waiting for
+     * a build in progress.
+     * @return The hierarchy, or null if it is not ready yet.
+     */
+    ContractionHierarchy readyContractionHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * Returns the ALT landmark tables over compact(), building them on the first call. The
+     * server builds them in the background at startup rather than on a request thread.
+     */
+    Landmarks landmarks() {
+        synchronized (landmarksLock) {
+            if (landmarks == null) {
+                landmarks = new Landmarks(compact, Landmarks.DEFAULT_COUNT);
+            }
+            return landmarks;
+        }
+    }
+
+    /**
+     * Returns the ALT landmark tables if they have been built, without waiting for a build
+     * in progress.
+     * @return The tables, or null if they are not ready yet.
+     */
+    Landmarks readyLandmarks() {
+        return landmarks;
+    }
+
+    /**
+     * Uses the Contraction Hierarchy saved at chPath if it was built for this graph.
+     * @return Whether it was loaded.
+     */
+    synchronized boolean loadContractionHierarchy(String chPath) {
+        ContractionHierarchy loaded = ContractionHierarchy.read(new File(chPath), compact);
+        if (loaded != null) {
+            hierarchy = loaded;
+        }
+        return loaded != null;
+    }
+
+    /**
+     * Installs a CSR graph restored from a snapshot and indexes the restored locations.
+     * The nodes, ways and locations must already have been restored.
+     */
+    void restore(CompactGraph restored) {
+        compact = restored;
+        spatialIndex = new KdTree(compact);
+        landmarks = null;
+        cleanLocations();
+    }
+
+    /** Restores a way without adding edges again; node ids that are not vertices are skipped. */
+    Way restoreWay(long id, String name, long[] nodeIds) {
+        Way way = new Way(id);
+        way.setName(name);
+        for (long ndRef : nodeIds) {
+            Node currentNode = this.nodes.get(ndRef);
+            if (currentNode != null) {
+                way.addNode(currentNode);
+                currentNode.addWay(way);
+            }
+        }
+        this.ways.put(id, way);
+        return way;
+    }
+
+    Collection<Way> ways() {
+        return ways.values();
+    }
+
+    Collection<Node> locations() {
+        return locations.values();
+    }
+
+    /**
+     * Returns the frozen CSR form of the graph that the routing code searches over.
+     */
+    CompactGraph compact() {
+        return compact;
+    }
+
+    /**
+     * Rough heap footprint in bytes of the road-graph part of the Node object graph
+     * (the nodes map, the Node objects and their adjacency/way/edge lists), for comparison
+     * with compact().memoryFootprint(). Assumes a 64-bit JVM with compressed oops.
+     */
+    long objectGraphFootprint() {
+        int ref = CompactGraph.REFERENCE_BYTES;
+        int header = CompactGraph.OBJECT_HEADER_BYTES;
+        long nodeBytes = CompactGraph.align(header + Long.BYTES + 2 * Double.BYTES + 5 * ref);
+        long listBytes = CompactGraph.align(header + 2 * Integer.BYTES + ref);
+        long entryBytes = CompactGraph.align(header + Integer.BYTES + 3 * ref);
+        long boxedLongBytes = CompactGraph.align(header + Long.BYTES);
+
+        long total = CompactGraph.arrayBytes(Integer.highestOneBit(
+                Math.max(1, nodes.size() * 4 / 3)) * 2, ref);
+        for (Node n : nodes.values()) {
+            total += entryBytes + boxedLongBytes + nodeBytes + 3 * listBytes;
+            total += CompactGraph.arrayBytes(n.getAdjacentNodes().size(), ref);
+            total += CompactGraph.arrayBytes(n.getPartOfWays().size(), ref);
+        }
+        return total;
     }
 
     /**
@@ -109,13 +335,11 @@ public class GraphDB {
      * @return An iterable of id's of all vertices in the graph.
      */
     Iterable<Long> vertices() {
-        //YOUR CODE HERE, this currently returns only an empty list.
-       ArrayList<Node> listOfNodes = new ArrayList<>(this.nodes.values());
-       ArrayList<Long> ids = new ArrayList<>(listOfNodes.size());
-       for (Node node : listOfNodes) {
-           ids.add(node.getId());
-       }
-       return ids;
+        ArrayList<Long> ids = new ArrayList<>(compact.size());
+        for (int v = 0; v < compact.size(); v++) {
+            ids.add(compact.id(v));
+        }
+        return ids;
     }
 
     /**
@@ -124,10 +348,13 @@ public class GraphDB {
      * @return An iterable of the ids of the neighbors of v.
      */
     Iterable<Long> adjacent(long v) {
-        ArrayList<Node> adjacentNodes = new ArrayList<>(this.nodes.get(v).getAdjacentNodes());
-        ArrayList<Long> result = new ArrayList<>();
-        for (Node node : adjacentNodes) {
-            result.add(node.getId());
+        int i = compact.indexOf(v);
+        ArrayList<Long> result = new ArrayList<>(i < 0 ? 0 : compact.degree(i));
+        if (i < 0) {
+            return result;
+        }
+        for (int e = compact.firstEdge(i); e < compact.endEdge(i); e++) {
+            result.add(compact.id(compact.target(e)));
         }
         return result;
     }
@@ -199,6 +426,15 @@ public class GraphDB {
      * @return The id of the node in the graph closest to the target.
      */
     long closest(double lon, double lat) {
+        int v = spatialIndex.nearest(lon, lat);
+        return v < 0 ? -1 : compact.id(v);
+    }
+
+    /**
+     * Linear-scan version of closest that the k-d tree replaced. Kept for benchmarking
+     * and as a reference for tests.
+     */
+    long closestByScan(double lon, double lat) {
         Node query = new Node(-1L, lon, lat);
         Node closestNode = new Node(-1L, 0,0);
         double closestDistance = 999999999;
@@ -218,7 +454,8 @@ public class GraphDB {
      * @return The longitude of the vertex.
      */
     double lon(long v) {
-        return this.nodes.containsKey(v) ? this.nodes.get(v).getLon() : -1; //-1 means invalid input
+        int i = compact.indexOf(v);
+        return i >= 0 ? compact.lon(i) : -1; //-1 means invalid input
     }
 
     /**
@@ -227,7 +464,8 @@ public class GraphDB {
      * @return The latitude of the vertex.
      */
     double lat(long v) {
-        return this.nodes.containsKey(v) ? this.nodes.get(v).getLat() : -1;
+        int i = compact.indexOf(v);
+        return i >= 0 ? compact.lat(i) : -1;
     }
 
 
@@ -307,10 +545,15 @@ public class GraphDB {
         return this.nodes.size();
     }
 
+    /**
+     * Returns the names of the locations whose cleaned names start with the cleaned prefix,
+     * one per cleaned name, sorted. Locations sharing a cleaned name, e.g. the branches of
+     * a chain, are listed once by the name of the first of them.
+     */
     public List<String> getLocationsByPrefix(String prefix) {
         prefix = cleanString(prefix);
 
-        List<Node> nodes = prefixTree.getMatches(prefix);
+        List<Node> nodes = prefixTree.getFirstMatches(prefix);
         List<String> result = new ArrayList<>();
 
         for (Node n : nodes) {
@@ -319,4 +562,48 @@ public class GraphDB {
         Collections.sort(result);
         return result;
     }
+
+    /**
+     * Returns the names of the limit most popular locations whose cleaned names start with
+     * the cleaned prefix, one per cleaned name, most popular first. A cleaned name is as
+     * popular as the number of locations that share it, e.g. the branches of a chain, and
+     * ties go to the name that sorts first.
+     * @param limit Most names returned; up to MAX_PREFIX_LIMIT are answered from lists
+     *              ranked when the graph was loaded.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int limit) {
+        return names(prefixTree.getTopMatches(cleanString(prefix), limit));
+    }
+
+    /**
+     * Returns the names of the limit locations whose cleaned names start with something
+     * closest to the cleaned query, one per cleaned name, allowing no typos in queries of
+     * up to two characters, one in queries of up to five and two in longer ones. Equally
+     * close names are ranked by popularity, as in getLocationsByPrefix. The search stops
+     * after FUZZY_BUDGET_NANOS with the best names found by then.
+     */
+    public List<String> getLocationsByFuzzyPrefix(String query, int limit) {
+        String cleaned = cleanString(query);
+        int maxDistance = cleaned.length() <= 2 ? 0 : cleaned.length() <= 5 ? 1 : 2;
+        return names(prefixTree.getFuzzyMatches(cleaned, maxDistance, limit,
+                System.nanoTime() + FUZZY_BUDGET_NANOS));
+    }
+
+    /**
+     * Returns the names of the limit most popular locations whose cleaned names contain
+     * every word of the cleaned query, in any position, one per cleaned name. The last word
+     * only has to start a word of the name unless the query ends with a space, so the
+     * results follow the query as it is typed.
+     */
+    public List<String> getLocationsByToken(String query, int limit) {
+        return names(tokenIndex.getMatches(cleanString(query), limit));
+    }
+
+    private static List<String> names(List<Node> nodes) {
+        List<String> result = new ArrayList<>(nodes.size());
+        for (Node n : nodes) {
+            result.add(n.getName());
+        }
+        return result;
+    }
 }
@@ -34,6 +34,10 @@ public class GraphDBLauncher {
         System.out.print("The vertex number closest to -122.258207, 37.875352 is " + v + ", which");
         System.out.println(" has longitude, latitude of: " + g.lon(v) + ", " + g.lat(v));
 
+        System.out.println("Object graph footprint: ~" + g.objectGraphFootprint() / 1024 + " KiB, "
+                + "CSR graph footprint: ~" + g.compact().memoryFootprint() / 1024 + " KiB ("
+                + g.compact().size() + " vertices, " + g.compact().edgeCount() + " edges).");
+
         System.out.println("To get started, uncomment print statements in GraphBuildingHandler.");
 //        System.out.println("Chaat Café: " + g.getNode((long)541001019).getName());
 //        System.out.println("Prince Street: " + g.getWay((long)6344484).getName());
@@ -0,0 +1,230 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary snapshot of a cleaned GraphDB: the CSR arrays, the ways with their
+ * names, and the named locations with their cleaned names (from which the prefix index is
+ * rebuilt without running cleanString again). GraphSnapshotLauncher writes it once, and
+ * GraphDB.load maps it with FileChannel.map so restarts skip SAX parsing entirely.
+ *
+ * The CSR arrays are not copied out of the mapping: the restored CompactGraph reads them
+ * through buffer views of it, so several server processes on one host share a single copy
+ * in the page cache. Only the ways, the locations and the Node objects they refer to (for
+ * getNode and routeDirections) are rebuilt on the heap; the nodes get no adjacency lists,
+ * as all graph searches run on the CompactGraph.
+ *
+ * Layout (big-endian): a fixed header of magic, format version, the length and
+ * modification time of the XML file the snapshot was built from, the payload length and
+ * a CRC32 of the payload, followed by the payload itself. The payload starts with the
+ * vertex and edge counts and then the 8-byte arrays ahead of the 4-byte ones, so every
+ * array starts on a multiple of its element size.
+ */
+public class GraphSnapshot {
+    static final int MAGIC = 0x424d4150; // "BMAP"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 8;
+
+    /**
+     * Writes a snapshot of g, stamped with the size and modification time of source.
+     * @param g The cleaned graph.
+     * @param source The OSM XML file g was parsed from.
+     * @param out The snapshot file to write.
+     */
+    public static void write(GraphDB g, File source, File out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+
+        CompactGraph cg = g.compact();
+        int vertices = cg.size();
+        int edges = cg.edgeCount();
+        payload.writeInt(vertices);
+        payload.writeInt(edges);
+        for (int v = 0; v < vertices; v++) {
+            payload.writeLong(cg.id(v));
+        }
+        for (int v = 0; v < vertices; v++) {
+            payload.writeDouble(cg.lon(v));
+        }
+        for (int v = 0; v < vertices; v++) {
+            payload.writeDouble(cg.lat(v));
+        }
+        for (int k = 0; k < edges; k++) {
+            payload.writeDouble(cg.weight(k));
+        }
+        for (int v = 0; v < vertices; v++) {
+            payload.writeInt(cg.firstEdge(v));
+        }
+        payload.writeInt(edges);
+        for (int k = 0; k < edges; k++) {
+            payload.writeInt(cg.target(k));
+        }
+
+        payload.writeInt(g.ways().size());
+        for (Way way : g.ways()) {
+            payload.writeLong(way.getId());
+            writeString(payload, way.getName());
+            payload.writeInt(way.getWay().size());
+            for (Node n : way.getWay()) {
+                payload.writeLong(n.getId());
+            }
+        }
+
+        payload.writeInt(g.locations().size());
+        for (Node n : g.locations()) {
+            payload.writeLong(n.getId());
+            payload.writeDouble(n.getLon());
+            payload.writeDouble(n.getLat());
+            writeString(payload, n.getName());
+            writeString(payload, n.getCleanedName());
+        }
+        payload.flush();
+
+        byte[] body = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(out))) {
+            DataOutputStream header = new DataOutputStream(os);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(source.length());
+            header.writeLong(source.lastModified());
+            header.writeLong(body.length);
+            header.writeLong(crc.getValue());
+            header.write(body);
+            header.flush();
+        }
+    }
+
+    /**
+     * Maps the snapshot file and restores a GraphDB from it.
+     * @param snapshot The snapshot file.
+     * @param source The OSM XML file the snapshot should have been built from.
+     * @return The restored graph, or null if the snapshot is missing, from another format
+     * version, stale with respect to source, or fails its checksum.
+     */
+    public static GraphDB read(File snapshot, File source) {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return null;
+            }
+            long sourceLength = buf.getLong();
+            long sourceModified = buf.getLong();
+            if (source.exists() && (sourceLength != source.length()
+                    || sourceModified != source.lastModified())) {
+                return null;
+            }
+            long payloadLength = buf.getLong();
+            long checksum = buf.getLong();
+            if (payloadLength != channel.size() - HEADER_BYTES) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer body = buf.slice();
+            crc.update(body);
+            if (crc.getValue() != checksum) {
+                return null;
+            }
+            return restore(buf);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static GraphDB restore(ByteBuffer buf) {
+        int n = buf.getInt();
+        int e = buf.getInt();
+        LongBuffer ids = section(buf, n * Long.BYTES).asLongBuffer();
+        DoubleBuffer lons = section(buf, n * Double.BYTES).asDoubleBuffer();
+        DoubleBuffer lats = section(buf, n * Double.BYTES).asDoubleBuffer();
+        DoubleBuffer weights = section(buf, e * Double.BYTES).asDoubleBuffer();
+        IntBuffer offsets = section(buf, (n + 1) * Integer.BYTES).asIntBuffer();
+        IntBuffer targets = section(buf, e * Integer.BYTES).asIntBuffer();
+        CompactGraph cg = new CompactGraph(ids, lons, lats, offsets, targets, weights);
+
+        GraphDB g = new GraphDB();
+        for (int v = 0; v < n; v++) {
+            g.addNode(cg.id(v), cg.lon(v), cg.lat(v));
+        }
+
+        int wayCount = buf.getInt();
+        for (int i = 0; i < wayCount; i++) {
+            long id = buf.getLong();
+            String name = readString(buf);
+            long[] nodeIds = new long[buf.getInt()];
+            for (int k = 0; k < nodeIds.length; k++) {
+                nodeIds[k] = buf.getLong();
+            }
+            g.restoreWay(id, name, nodeIds);
+        }
+
+        int locationCount = buf.getInt();
+        for (int i = 0; i < locationCount; i++) {
+            long id = buf.getLong();
+            double lon = buf.getDouble();
+            double lat = buf.getDouble();
+            Node location = g.getNode(id);
+            if (location == null) {
+                location = new Node(id, lon, lat);
+            }
+            location.setName(readString(buf));
+            location.setCleanedName(readString(buf));
+            g.addLocation(location);
+        }
+
+        g.restore(cg);
+        return g;
+    }
+
+    /** Returns the next bytes of buf as a buffer of their own and moves buf past them. */
+    private static ByteBuffer section(ByteBuffer buf, int bytes) {
+        ByteBuffer section = buf.slice();
+        ((Buffer) section).limit(bytes);
+        ((Buffer) buf).position(buf.position() + bytes);
+        return section;
+    }
+
+    /** Strings are a byte length (-1 for null) followed by UTF-8 bytes. */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        buf.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
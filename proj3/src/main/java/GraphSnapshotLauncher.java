@@ -0,0 +1,39 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Parses the OSM XML once and writes the cleaned graph out as a binary snapshot that
+ * MapServer.initialize() maps on startup instead of re-parsing the XML, along with the
+ * graph's Contraction Hierarchy (the snapshot path plus ".ch"). Rerun it whenever the XML
+ * file changes; a stale snapshot is ignored and the server falls back to parsing.
+ * Usage: GraphSnapshotLauncher [osm xml path] [snapshot path]
+ */
+public class GraphSnapshotLauncher {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final String SNAPSHOT_PATH = "../library-sp18/data/berkeley-2018.snapshot";
+    /** Appended to the snapshot path to name the Contraction Hierarchy file. */
+    static final String CH_SUFFIX = ".ch";
+
+    public static void main(String[] args) throws IOException {
+        String dbPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        String snapshotPath = args.length > 1 ? args[1] : SNAPSHOT_PATH;
+
+        long start = System.nanoTime();
+        GraphDB g = new GraphDB(dbPath);
+        long parsed = System.nanoTime();
+        GraphSnapshot.write(g, new File(dbPath), new File(snapshotPath));
+        long written = System.nanoTime();
+        GraphDB loaded = GraphSnapshot.read(new File(snapshotPath), new File(dbPath));
+        long read = System.nanoTime();
+
+        System.out.println("Parsed " + dbPath + " in " + (parsed - start) / 1000000 + " ms.");
+        System.out.println("Wrote " + snapshotPath + " (" + new File(snapshotPath).length()
+                + " bytes) in " + (written - parsed) / 1000000 + " ms.");
+        System.out.println("Loaded it back in " + (read - written) / 1000000 + " ms with "
+                + (loaded == null ? "errors" : loaded.getNodeSize() + " vertices") + ".");
+
+        ContractionHierarchy hierarchy = g.contractionHierarchy();
+        hierarchy.write(new File(snapshotPath + CH_SUFFIX));
+        System.out.println("Wrote " + snapshotPath + CH_SUFFIX + ".");
+    }
+}
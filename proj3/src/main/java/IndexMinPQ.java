@@ -0,0 +1,109 @@
+import java.util.Arrays;
+
+/**
+ * Indexed binary min-heap over the integers 0..capacity-1 with double priorities,
+ * supporting decrease-key. Router uses it as the search fringe, with dense vertex indices
+ * as items, so each vertex is queued at most once and relaxations update it in place
+ * instead of queueing a new entry. clear() only touches the items still queued, so one
+ * heap can be reused across searches.
+ */
+public class IndexMinPQ {
+    /** Heap-ordered items, 1-based. */
+    private final int[] pq;
+    /** Position of each item in pq, or -1 if it is not queued. */
+    private final int[] qp;
+    private final double[] keys;
+    private int size;
+
+    public IndexMinPQ(int capacity) {
+        pq = new int[capacity + 1];
+        qp = new int[capacity];
+        keys = new double[capacity];
+        Arrays.fill(qp, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int i) {
+        return qp[i] != -1;
+    }
+
+    /** Queues i with the given key, or lowers its key if it is already queued. */
+    public void insertOrDecrease(int i, double key) {
+        if (qp[i] == -1) {
+            size++;
+            qp[i] = size;
+            pq[size] = i;
+            keys[i] = key;
+            swim(size);
+        } else if (key < keys[i]) {
+            keys[i] = key;
+            swim(qp[i]);
+        }
+    }
+
+    public int minIndex() {
+        return pq[1];
+    }
+
+    public double minKey() {
+        return keys[pq[1]];
+    }
+
+    /** Removes and returns the item with the smallest key. */
+    public int delMin() {
+        int min = pq[1];
+        exchange(1, size);
+        size--;
+        sink(1);
+        qp[min] = -1;
+        return min;
+    }
+
+    /** Empties the heap in time proportional to the number of queued items. */
+    public void clear() {
+        for (int k = 1; k <= size; k++) {
+            qp[pq[k]] = -1;
+        }
+        size = 0;
+    }
+
+    private void swim(int k) {
+        while (k > 1 && greater(k / 2, k)) {
+            exchange(k, k / 2);
+            k = k / 2;
+        }
+    }
+
+    private void sink(int k) {
+        while (2 * k <= size) {
+            int j = 2 * k;
+            if (j < size && greater(j, j + 1)) {
+                j++;
+            }
+            if (!greater(k, j)) {
+                break;
+            }
+            exchange(k, j);
+            k = j;
+        }
+    }
+
+    private boolean greater(int i, int j) {
+        return keys[pq[i]] > keys[pq[j]];
+    }
+
+    private void exchange(int i, int j) {
+        int swap = pq[i];
+        pq[i] = pq[j];
+        pq[j] = swap;
+        qp[pq[i]] = i;
+        qp[pq[j]] = j;
+    }
+}
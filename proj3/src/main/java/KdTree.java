@@ -0,0 +1,174 @@
+/**
+ * Static 3-d tree over the vertices of a CompactGraph, used by GraphDB.closest.
+ *
+ * Each vertex is projected onto the unit sphere as an (x, y, z) point. Straight-line
+ * (chord) distance between two such points grows monotonically with the great-circle
+ * distance between them, so the nearest point by chord is also the nearest vertex by
+ * GraphDB.distance. The tree is implicit: points are stored in primitive arrays permuted
+ * so that the median of every range [lo, hi) sits at its middle, and the children of the
+ * range are [lo, mid) and [mid + 1, hi). Queries therefore allocate nothing.
+ */
+public class KdTree {
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    /** Dense CompactGraph index of the point stored at each tree position. */
+    private final int[] vertices;
+    /** Split axis (0 = x, 1 = y, 2 = z) of the range whose median is at each position. */
+    private final byte[] axes;
+
+    /**
+     * Builds the tree over every vertex of g in O(V log V) expected time.
+     * @param g The graph whose vertices are indexed.
+     */
+    public KdTree(CompactGraph g) {
+        int n = g.size();
+        xs = new double[n];
+        ys = new double[n];
+        zs = new double[n];
+        vertices = new int[n];
+        axes = new byte[n];
+        for (int v = 0; v < n; v++) {
+            double phi = Math.toRadians(g.lat(v));
+            double lambda = Math.toRadians(g.lon(v));
+            xs[v] = Math.cos(phi) * Math.cos(lambda);
+            ys[v] = Math.cos(phi) * Math.sin(lambda);
+            zs[v] = Math.sin(phi);
+            vertices[v] = v;
+        }
+        build(0, n);
+    }
+
+    /**
+     * Returns the dense index of the vertex closest to the given point, or -1 if the tree
+     * is empty.
+     */
+    public int nearest(double lon, double lat) {
+        if (vertices.length == 0) {
+            return -1;
+        }
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        double qx = Math.cos(phi) * Math.cos(lambda);
+        double qy = Math.cos(phi) * Math.sin(lambda);
+        double qz = Math.sin(phi);
+        int best = nearest(0, vertices.length, qx, qy, qz, vertices.length / 2);
+        return vertices[best];
+    }
+
+    /**
+     * Searches the range [lo, hi) for a point closer to q than the one at position best,
+     * and returns the position of the closest point found.
+     */
+    private int nearest(int lo, int hi, double qx, double qy, double qz, int best) {
+        if (lo >= hi) {
+            return best;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (distanceSquared(mid, qx, qy, qz) < distanceSquared(best, qx, qy, qz)) {
+            best = mid;
+        }
+        double diff = coordinate(axes[mid], qx, qy, qz) - coordinate(axes[mid], mid);
+        if (diff < 0) {
+            best = nearest(lo, mid, qx, qy, qz, best);
+            if (diff * diff < distanceSquared(best, qx, qy, qz)) {
+                best = nearest(mid + 1, hi, qx, qy, qz, best);
+            }
+        } else {
+            best = nearest(mid + 1, hi, qx, qy, qz, best);
+            if (diff * diff < distanceSquared(best, qx, qy, qz)) {
+                best = nearest(lo, mid, qx, qy, qz, best);
+            }
+        }
+        return best;
+    }
+
+    private double distanceSquared(int i, double qx, double qy, double qz) {
+        double dx = xs[i] - qx;
+        double dy = ys[i] - qy;
+        double dz = zs[i] - qz;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private double coordinate(int axis, int i) {
+        return axis == 0 ? xs[i] : axis == 1 ? ys[i] : zs[i];
+    }
+
+    private static double coordinate(int axis, double x, double y, double z) {
+        return axis == 0 ? x : axis == 1 ? y : z;
+    }
+
+    /** Splits [lo, hi) around its median along the axis with the widest spread. */
+    private void build(int lo, int hi) {
+        if (hi - lo <= 0) {
+            return;
+        }
+        int axis = widestAxis(lo, hi);
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        axes[mid] = (byte) axis;
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    private int widestAxis(int lo, int hi) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+        for (int i = lo; i < hi; i++) {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+            minZ = Math.min(minZ, zs[i]);
+            maxZ = Math.max(maxZ, zs[i]);
+        }
+        double spreadX = maxX - minX, spreadY = maxY - minY, spreadZ = maxZ - minZ;
+        if (spreadX >= spreadY && spreadX >= spreadZ) {
+            return 0;
+        }
+        return spreadY >= spreadZ ? 1 : 2;
+    }
+
+    /** Quickselect: rearranges [left, right] so position k holds its median along axis. */
+    private void select(int left, int right, int k, int axis) {
+        while (right > left) {
+            double pivot = coordinate(axis, (left + right) >>> 1);
+            int i = left, j = right;
+            while (i <= j) {
+                while (coordinate(axis, i) < pivot) {
+                    i++;
+                }
+                while (coordinate(axis, j) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        double t = xs[i];
+        xs[i] = xs[j];
+        xs[j] = t;
+        t = ys[i];
+        ys[i] = ys[j];
+        ys[j] = t;
+        t = zs[i];
+        zs[i] = zs[j];
+        zs[j] = t;
+        int v = vertices[i];
+        vertices[i] = vertices[j];
+        vertices[j] = v;
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * Landmark distance tables for ALT (A*, Landmarks, Triangle inequality) search.
+ *
+ * A handful of landmark vertices on the edge of the graph are picked, and the exact road
+ * distance from every vertex to every landmark is stored. For any landmark L the triangle
+ * inequality gives d(v, t) >= |d(L, t) - d(L, v)|, which is usually a much tighter lower
+ * bound than the great-circle distance when the road network is not a straight line.
+ *
+ * Landmarks are chosen by farthest-point selection: the first is the vertex farthest from
+ * the centre of the graph, and each next one is the vertex whose road distance to the
+ * nearest landmark chosen so far is largest. Building the tables costs one Dijkstra per
+ * landmark, so they are cheap to rebuild whenever the graph changes.
+ */
+public class Landmarks {
+    /** Number of landmarks GraphDB builds by default. */
+    static final int DEFAULT_COUNT = 16;
+
+    private final CompactGraph graph;
+    private final int[] landmarks;
+    /** distances[v * count + i] is the distance from landmark i to v, rounded down. */
+    private final float[] distances;
+    /** Covers the rounding of two table entries, so bounds never overestimate. */
+    private final double slack;
+
+    /**
+     * Picks count landmarks and computes their distance tables.
+     * @param g The graph.
+     * @param count The number of landmarks, at most g.size().
+     */
+    public Landmarks(CompactGraph g, int count) {
+        graph = g;
+        int n = g.size();
+        count = Math.min(count, n);
+        landmarks = new int[count];
+        distances = new float[n * count];
+        if (count == 0) {
+            slack = 0;
+            return;
+        }
+
+        double[] nearestLandmark = new double[n];
+        Arrays.fill(nearestLandmark, Double.POSITIVE_INFINITY);
+        SearchSpace space = new SearchSpace(g);
+        float max = 0;
+        int next = farthestFromCentre(g);
+        for (int i = 0; i < count; i++) {
+            landmarks[i] = next;
+            space.reset(next, 0.0);
+            while (space.hasNext()) {
+                int v = space.settleNext();
+                double distV = space.distTo(v);
+                for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+                    double distW = distV + g.weight(e);
+                    space.relax(v, g.target(e), distW, distW);
+                }
+            }
+            double farthest = -1;
+            for (int v = 0; v < n; v++) {
+                double d = space.distTo(v);
+                distances[v * count + i] = roundDown(d);
+                if (d != Double.POSITIVE_INFINITY) {
+                    max = Math.max(max, (float) d);
+                    nearestLandmark[v] = Math.min(nearestLandmark[v], d);
+                    if (nearestLandmark[v] > farthest) {
+                        farthest = nearestLandmark[v];
+                        next = v;
+                    }
+                }
+            }
+        }
+        slack = 2 * Math.ulp(max);
+    }
+
+    private static int farthestFromCentre(CompactGraph g) {
+        double lon = 0, lat = 0;
+        for (int v = 0; v < g.size(); v++) {
+            lon += g.lon(v);
+            lat += g.lat(v);
+        }
+        lon /= g.size();
+        lat /= g.size();
+        int farthest = 0;
+        double farthestDistance = -1;
+        for (int v = 0; v < g.size(); v++) {
+            double d = GraphDB.distance(lon, lat, g.lon(v), g.lat(v));
+            if (d > farthestDistance) {
+                farthestDistance = d;
+                farthest = v;
+            }
+        }
+        return farthest;
+    }
+
+    private static float roundDown(double d) {
+        float f = (float) d;
+        return f > d ? Math.nextDown(f) : f;
+    }
+
+    public int count() {
+        return landmarks.length;
+    }
+
+    /** Dense index of landmark i. */
+    public int landmark(int i) {
+        return landmarks[i];
+    }
+
+    /**
+     * Lower bound on the road distance from v to t: the best landmark bound, or the
+     * great-circle distance if that is larger.
+     */
+    public double lowerBound(int v, int t) {
+        int count = landmarks.length;
+        int rowV = v * count;
+        int rowT = t * count;
+        double best = 0;
+        for (int i = 0; i < count; i++) {
+            float dv = distances[rowV + i];
+            float dt = distances[rowT + i];
+            if (dv == Float.POSITIVE_INFINITY || dt == Float.POSITIVE_INFINITY) {
+                continue;
+            }
+            best = Math.max(best, Math.abs(dt - dv));
+        }
+        return Math.max(best - slack, graph.distance(v, t));
+    }
+
+    /** Approximate heap footprint of the tables in bytes. */
+    public long memoryFootprint() {
+        return CompactGraph.arrayBytes(distances.length, Float.BYTES)
+                + CompactGraph.arrayBytes(landmarks.length, Integer.BYTES);
+    }
+}
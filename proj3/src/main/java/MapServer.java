@@ -1,17 +1,28 @@
-import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.BasicStroke;
 import java.awt.Color;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
 
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 
 import static spark.Spark.*;
 
@@ -31,7 +42,7 @@ public class MapServer {
      */
     public static final double ROOT_ULLAT = 37.892195547244356, ROOT_ULLON = -122.2998046875,
             ROOT_LRLAT = 37.82280243352756, ROOT_LRLON = -122.2119140625;
-    /** Each tile is 256x256 pixels. */
+    /** Each Berkeley tile is 256x256 pixels. */
     public static final int TILE_SIZE = 256;
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
@@ -39,20 +50,28 @@ public class MapServer {
     public static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: Cyan with half transparency. */
     public static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
-    /** The tile images are in the IMG_ROOT folder. */
-    private static final String IMG_ROOT = "../library-sp18/data/proj3_imgs/";
+    /**
+     * Properties files describing the tile sets to serve, one per file, in the format read
+     * by TileSet.load. Without any, the Berkeley tiles are served.
+     **/
+    private static final String TILE_SETS_PATH = "../library-sp18/data/tilesets";
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
      * using custom region selection.
      **/
     private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    /** Binary snapshot of the cleaned graph written by GraphSnapshotLauncher. */
+    private static final String SNAPSHOT_PATH = "../library-sp18/data/berkeley-2018.snapshot";
     /**
      * Each raster request to the server will have the following parameters
      * as keys in the params map accessible by,
      * i.e., params.get("ullat") inside getMapRaster(). <br>
      * ullat : upper left corner latitude, <br> ullon : upper left corner longitude, <br>
      * lrlat : lower right corner latitude,<br> lrlon : lower right corner longitude <br>
-     * w : user viewport window width in pixels,<br> h : user viewport height in pixels.
+     * w : user viewport window width in pixels,<br> h : user viewport height in pixels.<br>
+     * An optional route_token parameter names the route to draw on the image, and an
+     * optional tile_set parameter names the tile set to draw from; without it, the first
+     * tile set containing the center of the query box is used, or else the first one.
      **/
     private static final String[] REQUIRED_RASTER_REQUEST_PARAMS = {"ullat", "ullon", "lrlat",
         "lrlon", "w", "h"};
@@ -60,10 +79,54 @@ public class MapServer {
      * Each route request to the server will have the following parameters
      * as keys in the params map.<br>
      * start_lat : start point latitude,<br> start_lon : start point longitude,<br>
-     * end_lat : end point latitude, <br>end_lon : end point longitude.
+     * end_lat : end point latitude, <br>end_lon : end point longitude.<br>
+     * An optional algorithm parameter names a Router.Algorithm (case insensitive), and an
+     * optional route_token replaces that client's previous route instead of starting a new one.
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
+    /**
+     * Each matrix request has sources and targets parameters, each a list of points
+     * written as lon,lat pairs separated by semicolons, e.g. -122.26,37.87;-122.25,37.86.
+     * With format=binary the distances are returned as a binary body instead of JSON.
+     **/
+    private static final String[] REQUIRED_MATRIX_REQUEST_PARAMS = {"sources", "targets"};
+    /**
+     * Each isochrone request has the start point as lon and lat, and a distance budget in
+     * miles.
+     **/
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lon", "lat", "miles"};
+    /** Most routes kept at once; the least recently used is dropped beyond this. */
+    private static final int ROUTE_CACHE_SIZE = 10000;
+    /** Routes not drawn or replaced for this long are forgotten. */
+    private static final long ROUTE_TTL_MINUTES = 30;
+    /** Byte budget for decoded tiles; a 256x256 tile takes 256 KiB. */
+    private static final long TILE_CACHE_BYTES = 128L << 20;
+    /** Background threads warming the tile cache ahead of each client's next raster. */
+    private static final int PREFETCH_THREADS =
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    /** Most prefetch plans waiting at once; the oldest is dropped beyond this. */
+    private static final int PREFETCH_QUEUE = 64;
+    /** Most clients whose last raster is remembered for prefetching. */
+    private static final int PREFETCH_CLIENTS = 10000;
+    /** A client's last raster is forgotten after this long without a new one. */
+    private static final long PREFETCH_TTL_MINUTES = 10;
+    /** Byte budget for cached raster images, counting both the PNG and its Base64. */
+    private static final long RASTER_CACHE_BYTES = 96L << 20;
+    /** Cached raster images not requested for this long are dropped. */
+    private static final long RASTER_TTL_MINUTES = 10;
+    /** Byte budget for idle pooled raster canvases. */
+    private static final long CANVAS_POOL_BYTES = 64L << 20;
+    /** Deflate level for raster PNGs; lower is faster and larger. */
+    private static final int PNG_DEFLATE_LEVEL = 6;
+    /** Byte budget for encoded vector tiles. */
+    private static final long VECTOR_TILE_CACHE_BYTES = 32L << 20;
+    /** Cached vector tiles not requested for this long are dropped. */
+    private static final long VECTOR_TILE_TTL_MINUTES = 60;
+    /** Names returned by a ranked search that gives no limit. */
+    private static final int DEFAULT_SEARCH_LIMIT = 10;
+    /** Most points accepted on either side of a matrix request. */
+    private static final int MAX_MATRIX_POINTS = 1000;
 
     /**
      * The result of rastering must be a map containing all of the
@@ -71,10 +134,58 @@ public class MapServer {
      **/
     private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
         "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
-
-    private static Rasterer rasterer;
+    /**
+     * Response headers of /raster_png, holding raster_ul_lon, raster_ul_lat, raster_lr_lon,
+     * raster_lr_lat, depth, raster_width and raster_height in that order.
+     **/
+    private static final String[] RASTER_HEADERS = {"X-Raster-Ul-Lon", "X-Raster-Ul-Lat",
+        "X-Raster-Lr-Lon", "X-Raster-Lr-Lat", "X-Raster-Depth", "X-Raster-Width",
+        "X-Raster-Height"};
+
+    /** A Rasterer for each tile set, by tile set name, in the order they were loaded. */
+    private static Map<String, Rasterer> rasterers;
+    /** The ways of the graph as vector tiles of each tile set, by tile set name. */
+    private static Map<String, VectorTiles> vectorTiles;
     private static GraphDB graph;
-    private static List<Long> route = new LinkedList<>();
+    /** Each client's current route, keyed by the route_token /route hands out. */
+    private static final BoundedCache<String, RouteLayer> ROUTES =
+            new BoundedCache<>(ROUTE_CACHE_SIZE, ROUTE_TTL_MINUTES, TimeUnit.MINUTES);
+    private static final SecureRandom TOKEN_RANDOM = new SecureRandom();
+    /** Encoded raster images, keyed by rasterCacheKey. */
+    private static final BoundedCache<String, RenderedRaster> RASTERS = new BoundedCache<>(
+        RASTER_CACHE_BYTES, r -> r.png.length * 7L / 3, RASTER_TTL_MINUTES, TimeUnit.MINUTES);
+    /** Bounded pool for compositing and PNG compression, off the common pool. */
+    private static final ForkJoinPool RENDER_POOL =
+        new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    /** Reusable raster canvases; idle ones hold at most this many bytes in total. */
+    private static final CanvasPool CANVASES = new CanvasPool(CANVAS_POOL_BYTES);
+    private static final PngEncoder PNG_ENCODER = new PngEncoder(RENDER_POOL,
+        RENDER_POOL.getParallelism(), PNG_DEFLATE_LEVEL);
+    /** Decoded tile images of every tile set, keyed by tileKey. */
+    private static final TileCache TILES = new TileCache(TILE_CACHE_BYTES, key -> {
+        int slash = key.indexOf('/');
+        TileSet tileSet = rasterers.get(key.substring(0, slash)).tileSet();
+        return tileSet.read(key.substring(slash + 1));
+    });
+    /** Warms TILES around the raster each client, by IP address, was served last. */
+    private static final TilePrefetcher PREFETCHER = new TilePrefetcher(TILES,
+        MapServer::tileKey, PREFETCH_THREADS, PREFETCH_QUEUE, PREFETCH_CLIENTS,
+        PREFETCH_TTL_MINUTES, TimeUnit.MINUTES);
+    /** Encoded vector tiles of every tile set, keyed by tile set name, depth, x and y. */
+    private static final BoundedCache<String, byte[]> VECTOR_TILES = new BoundedCache<>(
+        VECTOR_TILE_CACHE_BYTES, tile -> tile.length, VECTOR_TILE_TTL_MINUTES,
+        TimeUnit.MINUTES);
+    /**
+     * Builds the routing indexes missing from disk after startup, one at a time on a
+     * low-priority daemon thread, so no request waits on a build. The landmark tables go
+     * first, as they take a fraction of the time of a contraction hierarchy.
+     */
+    private static final ExecutorService INDEX_BUILDER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "index-build");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -84,8 +195,48 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
-        rasterer = new Rasterer();
+        graph = GraphDB.load(OSM_DB_PATH, SNAPSHOT_PATH);
+        GraphDB g = graph;
+        System.out.println("Building ALT landmark tables in the background; alt requests "
+                + "are routed with A* until they are ready.");
+        INDEX_BUILDER.execute(() -> {
+            long start = System.currentTimeMillis();
+            Landmarks landmarks = g.landmarks();
+            System.out.println("Built " + landmarks.count() + " landmark tables in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        });
+        if (!graph.loadContractionHierarchy(SNAPSHOT_PATH + GraphSnapshotLauncher.CH_SUFFIX)) {
+            System.out.println("No contraction hierarchy for this graph on disk; building one "
+                    + "in the background, and routing contraction_hierarchies requests with "
+                    + "A* until it is ready.");
+            INDEX_BUILDER.execute(() -> {
+                long start = System.currentTimeMillis();
+                ContractionHierarchy hierarchy = g.contractionHierarchy();
+                System.out.println("Built contraction hierarchy with "
+                        + hierarchy.shortcutCount() + " shortcuts in "
+                        + (System.currentTimeMillis() - start) + " ms.");
+            });
+        }
+        List<TileSet> tileSets;
+        try {
+            tileSets = TileSet.loadAll(new File(TILE_SETS_PATH));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read tile sets in " + TILE_SETS_PATH, e);
+        }
+        if (tileSets.isEmpty()) {
+            tileSets = Collections.singletonList(TileSet.berkeley());
+        }
+        rasterers = new LinkedHashMap<>();
+        vectorTiles = new LinkedHashMap<>();
+        for (TileSet tileSet : tileSets) {
+            if (rasterers.put(tileSet.name(), new Rasterer(tileSet)) != null) {
+                throw new IllegalStateException("Two tile sets are named " + tileSet.name());
+            }
+            vectorTiles.put(tileSet.name(), new VectorTiles(graph, tileSet));
+            System.out.println("Serving tile set " + tileSet.name() + " to depth "
+                    + tileSet.maxDepth() + " from " + tileSet.backend().toString().toLowerCase()
+                    + " at " + tileSet.path() + ".");
+        }
     }
 
     public static void main(String[] args) {
@@ -104,17 +255,21 @@ public class MapServer {
         get("/raster", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* The png image is written to the ByteArrayOutputStream */
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            Rasterer rasterer = getRasterer(req.queryParams("tile_set"), params);
             /* getMapRaster() does almost all the work for this API call */
             Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
 
             boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
 
             if (rasterSuccess) {
-                writeImagesToOutputStream(rasteredImgParams, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-                rasteredImgParams.put("b64_encoded_image_data", encodedImage);
+                RouteLayer route = getRoute(req.queryParams("route_token"));
+                RenderedRaster rendered = getRenderedRaster(rasterer.tileSet(),
+                        rasteredImgParams, route);
+                PREFETCHER.viewed(req.ip(), rasterer.tileSet(),
+                        (String[][]) rasteredImgParams.get("render_grid"));
+                rasteredImgParams.put("raster_width", rendered.width);
+                rasteredImgParams.put("raster_height", rendered.height);
+                rasteredImgParams.put("b64_encoded_image_data", rendered.base64());
             }
 
             /* Encode response to Json */
@@ -122,24 +277,156 @@ public class MapServer {
             return gson.toJson(rasteredImgParams);
         });
 
+        /* Define the binary raster endpoint: the same query as /raster, but the PNG is the
+         * response body and the raster bounds and size are in X-Raster-* headers. The map
+         * page leaves out route_token and draws the route over the raster itself, from the
+         * coordinates /route returns, so its rasters are cached whatever the route. */
+        get("/raster_png", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            Rasterer rasterer = getRasterer(req.queryParams("tile_set"), params);
+            Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+            if (!validateRasteredImgParams(rasteredImgParams)) {
+                halt(HALT_RESPONSE, "Raster query failed.");
+            }
+            RouteLayer route = getRoute(req.queryParams("route_token"));
+            RenderedRaster rendered = getRenderedRaster(rasterer.tileSet(), rasteredImgParams,
+                    route);
+            PREFETCHER.viewed(req.ip(), rasterer.tileSet(),
+                    (String[][]) rasteredImgParams.get("render_grid"));
+
+            res.type("image/png");
+            res.header("Access-Control-Expose-Headers", String.join(", ", RASTER_HEADERS));
+            res.header(RASTER_HEADERS[0], rasteredImgParams.get("raster_ul_lon").toString());
+            res.header(RASTER_HEADERS[1], rasteredImgParams.get("raster_ul_lat").toString());
+            res.header(RASTER_HEADERS[2], rasteredImgParams.get("raster_lr_lon").toString());
+            res.header(RASTER_HEADERS[3], rasteredImgParams.get("raster_lr_lat").toString());
+            res.header(RASTER_HEADERS[4], rasteredImgParams.get("depth").toString());
+            res.header(RASTER_HEADERS[5], Integer.toString(rendered.width));
+            res.header(RASTER_HEADERS[6], Integer.toString(rendered.height));
+            res.raw().setContentLength(rendered.png.length);
+            res.raw().getOutputStream().write(rendered.png);
+            return "";
+        });
+
         /* Define the routing endpoint for HTTP GET requests. */
         get("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            String directions = getDirectionsText();
+            List<Long> route = Router.shortestPath(graph, params.get("start_lon"),
+                    params.get("start_lat"), params.get("end_lon"), params.get("end_lat"),
+                    getRouteAlgorithm(req));
+            String token = req.queryParams("route_token");
+            if (token == null) {
+                token = newRouteToken();
+            }
+            RouteLayer layer = new RouteLayer(graph, route);
+            ROUTES.put(token, layer);
+            String directions = getDirectionsText(route);
             Map<String, Object> routeParams = new HashMap<>();
+            routeParams.put("route_token", token);
+            routeParams.put("route", layer.coordinates());
             routeParams.put("routing_success", !route.isEmpty());
             routeParams.put("directions_success", directions.length() > 0);
             routeParams.put("directions", directions);
+            routeParams.put("settled_vertices", Router.lastSettledCount());
             Gson gson = new Gson();
             return gson.toJson(routeParams);
         });
 
+        /* Define the distance matrix endpoint. The body is written straight to the response
+         * stream rather than built up as one string. */
+        get("/matrix", (req, res) -> {
+            for (String param : REQUIRED_MATRIX_REQUEST_PARAMS) {
+                if (req.queryParams(param) == null) {
+                    halt(HALT_RESPONSE, "Request failed - parameters missing.");
+                }
+            }
+            List<double[]> sources = getPoints(req.queryParams("sources"));
+            List<double[]> targets = getPoints(req.queryParams("targets"));
+            double[][] distances = Router.distanceMatrix(graph, sources, targets);
+            if ("binary".equals(req.queryParams("format"))) {
+                res.type("application/octet-stream");
+                writeMatrixBinary(distances, targets.size(), res.raw().getOutputStream());
+            } else {
+                res.type("application/json");
+                writeMatrixJson(distances, targets.size(), res.raw().getOutputStream());
+            }
+            return "";
+        });
+
+        /* Define the isochrone endpoint: everything reachable within a distance budget. */
+        get("/isochrone", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            Router.Isochrone isochrone = Router.isochrone(graph, params.get("lon"),
+                    params.get("lat"), params.get("miles"));
+            List<Map<String, Object>> vertices = new ArrayList<>();
+            long[] ids = isochrone.getVertices();
+            for (int i = 0; i < ids.length; i++) {
+                Map<String, Object> vertex = new HashMap<>();
+                vertex.put("id", ids[i]);
+                vertex.put("lon", graph.lon(ids[i]));
+                vertex.put("lat", graph.lat(ids[i]));
+                vertex.put("distance", isochrone.getDistances()[i]);
+                vertices.add(vertex);
+            }
+            Map<String, Object> isochroneParams = new HashMap<>();
+            isochroneParams.put("vertices", vertices);
+            isochroneParams.put("boundary", isochrone.getBoundary());
+            Gson gson = new Gson();
+            return gson.toJson(isochroneParams);
+        });
+
+        /* Define the vector tile endpoint: the ways of the graph within tile (x, y) at depth
+         * of a tile set's pyramid, in the binary format described in VectorTiles. */
+        get("/vector_tile", (req, res) -> {
+            String name = req.queryParams("tile_set");
+            VectorTiles tiles = name == null ? vectorTiles.values().iterator().next()
+                    : vectorTiles.get(name);
+            if (tiles == null) {
+                halt(HALT_RESPONSE, "Incorrect parameters - unknown tile set " + name + ".");
+            }
+            int depth = getIntParam(req, "depth");
+            int x = getIntParam(req, "x");
+            int y = getIntParam(req, "y");
+            byte[] tile = getVectorTile(tiles, depth, x, y);
+            res.type("application/octet-stream");
+            res.raw().setContentLength(tile.length);
+            res.raw().getOutputStream().write(tile);
+            return "";
+        });
+
+        /* Define the API endpoint listing the tile sets rasters can be drawn from. */
+        get("/tile_sets", (req, res) -> {
+            List<Map<String, Object>> tileSets = new ArrayList<>();
+            for (Rasterer rasterer : rasterers.values()) {
+                TileSet tileSet = rasterer.tileSet();
+                Map<String, Object> description = new LinkedHashMap<>();
+                description.put("name", tileSet.name());
+                description.put("ullon", tileSet.ullon());
+                description.put("ullat", tileSet.ullat());
+                description.put("lrlon", tileSet.lrlon());
+                description.put("lrlat", tileSet.lrlat());
+                description.put("max_depth", tileSet.maxDepth());
+                description.put("tile_size", tileSet.tileSize());
+                tileSets.add(description);
+            }
+            Gson gson = new Gson();
+            return gson.toJson(tileSets);
+        });
+
+        /* Define the API endpoint for tile cache and prefetching counters. */
+        get("/tile_cache_stats", (req, res) -> {
+            Map<String, Object> stats = TILES.stats();
+            stats.put("prefetcher", PREFETCHER.stats());
+            Gson gson = new Gson();
+            return gson.toJson(stats);
+        });
+
         /* Define the API endpoint for clearing the current route. */
         get("/clear_route", (req, res) -> {
-            clearRoute();
+            clearRoute(req.queryParams("route_token"));
             return true;
         });
 
@@ -155,6 +442,15 @@ public class MapServer {
                 System.out.println(result);
                 return result;
                 //                return gson.toJson(data);
+            } else if ("fuzzy".equals(req.queryParams("mode"))) {
+                /* Search for the closest prefix matches, allowing for typos. */
+                return gson.toJson(graph.getLocationsByFuzzyPrefix(term, getSearchLimit(req)));
+            } else if ("token".equals(req.queryParams("mode"))) {
+                /* Search for names containing every word of the term. */
+                return gson.toJson(graph.getLocationsByToken(term, getSearchLimit(req)));
+            } else if (reqParams.contains("limit")) {
+                /* Search for the most popular prefix matching strings. */
+                return gson.toJson(graph.getLocationsByPrefix(term, getSearchLimit(req)));
             } else {
                 /* Search for prefix matching strings. */
                 List<String> matches = getLocationsByPrefix(term);
@@ -196,83 +492,345 @@ public class MapServer {
     }
 
     /**
-     * Writes the images corresponding to rasteredImgParams to the output stream.
-     * In Spring 2016, students had to do this on their own, but in 2017,
-     * we have made this into provided code since it was just a bit too low level.
+     * Picks the Rasterer for a raster request.
+     * @param name The tile_set parameter, or null to pick by the query box.
+     * @param params The raster request parameters.
+     * @return The named tile set's Rasterer, else that of the first tile set containing the
+     * center of the query box, else that of the first tile set.
      */
-    private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
-                                                  ByteArrayOutputStream os) {
-        String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
-        int numVertTiles = renderGrid.length;
-        int numHorizTiles = renderGrid[0].length;
+    private static Rasterer getRasterer(String name, Map<String, Double> params) {
+        if (name != null) {
+            Rasterer rasterer = rasterers.get(name);
+            if (rasterer == null) {
+                halt(HALT_RESPONSE, "Incorrect parameters - unknown tile set " + name + ".");
+            }
+            return rasterer;
+        }
+        double lon = (params.get("ullon") + params.get("lrlon")) / 2;
+        double lat = (params.get("ullat") + params.get("lrlat")) / 2;
+        Rasterer first = null;
+        for (Rasterer rasterer : rasterers.values()) {
+            if (rasterer.tileSet().contains(lon, lat)) {
+                return rasterer;
+            }
+            if (first == null) {
+                first = rasterer;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Reads a required integer parameter.
+     * @param req HTTP Request.
+     * @param param Name of the parameter.
+     */
+    private static int getIntParam(spark.Request req, String param) {
+        String value = req.queryParams(param);
+        if (value == null) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - provide integers.");
+            return 0;
+        }
+    }
 
-        BufferedImage img = new BufferedImage(numHorizTiles * MapServer.TILE_SIZE,
-                numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
-        Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
-
-        for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
-                x += MapServer.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += MapServer.TILE_SIZE;
+    /**
+     * Reads the "limit" parameter of a search request.
+     * @param req HTTP Request.
+     * @return The limit, or DEFAULT_SEARCH_LIMIT if the parameter is absent.
+     */
+    private static int getSearchLimit(spark.Request req) {
+        if (req.queryParams("limit") == null) {
+            return DEFAULT_SEARCH_LIMIT;
+        }
+        int limit = getIntParam(req, "limit");
+        if (limit < 1 || limit > GraphDB.MAX_PREFIX_LIMIT) {
+            halt(HALT_RESPONSE, "Incorrect parameters - limit must be between 1 and "
+                    + GraphDB.MAX_PREFIX_LIMIT + ".");
+        }
+        return limit;
+    }
+
+    /**
+     * Reads the optional "algorithm" parameter of a route request, e.g. "bidirectional_astar".
+     * @param req HTTP Request.
+     * @return The requested search, or A* if the parameter is absent.
+     */
+    private static Router.Algorithm getRouteAlgorithm(spark.Request req) {
+        String algorithm = req.queryParams("algorithm");
+        if (algorithm == null) {
+            return Router.Algorithm.ASTAR;
+        }
+        try {
+            return Router.Algorithm.valueOf(algorithm.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - unknown algorithm " + algorithm + ".");
+            return null;
+        }
+    }
+
+    /**
+     * Parses a list of points written as lon,lat pairs separated by semicolons.
+     * @return The points as {lon, lat} arrays.
+     */
+    private static List<double[]> getPoints(String param) {
+        String[] pairs = param.split(";");
+        if (pairs.length > MAX_MATRIX_POINTS) {
+            halt(HALT_RESPONSE, "Incorrect parameters - at most " + MAX_MATRIX_POINTS
+                    + " points.");
+        }
+        List<double[]> points = new ArrayList<>(pairs.length);
+        for (String pair : pairs) {
+            String[] lonLat = pair.split(",");
+            if (lonLat.length != 2) {
+                halt(HALT_RESPONSE, "Incorrect parameters - points are lon,lat pairs.");
+            }
+            try {
+                points.add(new double[]{Double.parseDouble(lonLat[0].trim()),
+                    Double.parseDouble(lonLat[1].trim())});
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Writes a distance matrix as {"rows": n, "columns": m, "distances": [[...], ...]},
+     * in miles, with null where no path exists.
+     */
+    private static void writeMatrixJson(double[][] distances, int columns,
+                                        OutputStream os) throws IOException {
+        JsonWriter json = new JsonWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        json.beginObject();
+        json.name("rows").value(distances.length);
+        json.name("columns").value(columns);
+        json.name("distances").beginArray();
+        for (double[] row : distances) {
+            json.beginArray();
+            for (double d : row) {
+                if (d == Double.POSITIVE_INFINITY) {
+                    json.nullValue();
+                } else {
+                    json.value(d);
                 }
             }
+            json.endArray();
         }
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
 
-        /* If there is a route, draw it. */
-        double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
-        double ullat = (double) rasteredImageParams.get("raster_ul_lat"); //tiles.get(0).ulp;
-        double lrlon = (double) rasteredImageParams.get("raster_lr_lon"); //tiles.get(0).ulp;
-        double lrlat = (double) rasteredImageParams.get("raster_lr_lat"); //tiles.get(0).ulp;
-
-        final double wdpp = (lrlon - ullon) / img.getWidth();
-        final double hdpp = (ullat - lrlat) / img.getHeight();
-        if (route != null && !route.isEmpty()) {
-            Graphics2D g2d = (Graphics2D) graphic;
-            g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
-            g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
-                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
-                g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
-                             (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
-                return w;
-            });
+    /**
+     * Writes a distance matrix as big-endian ints rows and columns followed by the
+     * distances in miles as row-major floats, with infinity where no path exists.
+     */
+    private static void writeMatrixBinary(double[][] distances, int columns,
+                                          OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(distances.length);
+        out.writeInt(columns);
+        for (double[] row : distances) {
+            for (double d : row) {
+                out.writeFloat((float) d);
+            }
         }
+        out.flush();
+    }
 
-        rasteredImageParams.put("raster_width", img.getWidth());
-        rasteredImageParams.put("raster_height", img.getHeight());
+    /** A composited, PNG-encoded raster image and the route drawn on it. */
+    private static class RenderedRaster {
+        final RouteLayer route;
+        final byte[] png;
+        final int width;
+        final int height;
+        /** Only encoded once a JSON /raster request needs it. */
+        private volatile String base64;
+
+        RenderedRaster(RouteLayer route, byte[] png, int width, int height) {
+            this.route = route;
+            this.png = png;
+            this.width = width;
+            this.height = height;
+        }
 
-        try {
-            ImageIO.write(img, "png", os);
-        } catch (IOException e) {
-            e.printStackTrace();
+        String base64() {
+            String encoded = base64;
+            if (encoded == null) {
+                encoded = Base64.getEncoder().encodeToString(png);
+                base64 = encoded;
+            }
+            return encoded;
+        }
+    }
+
+    /**
+     * Returns the encoded image for a raster result with route drawn on it, from the cache
+     * if the same tiles were rendered with the same route before.
+     */
+    private static RenderedRaster getRenderedRaster(TileSet tileSet,
+                                                    Map<String, Object> rasteredImgParams,
+                                                    RouteLayer route) {
+        String key = rasterCacheKey(tileSet, rasteredImgParams, route);
+        RenderedRaster rendered = RASTERS.get(key);
+        if (rendered != null && rendered.route.equals(route)) {
+            return rendered;
+        }
+        /* The png image is written to the ByteArrayOutputStream */
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeImagesToOutputStream(tileSet, rasteredImgParams, route, os);
+        rendered = new RenderedRaster(route, os.toByteArray(),
+                (int) rasteredImgParams.get("raster_width"),
+                (int) rasteredImgParams.get("raster_height"));
+        RASTERS.put(key, rendered);
+        return rendered;
+    }
+
+    /**
+     * A raster image is determined by its tile set, its corner tiles, whose names include
+     * the depth, and the route drawn on it. A changed route changes the key, so stale
+     * images are never served and simply age out of the cache.
+     */
+    private static String rasterCacheKey(TileSet tileSet, Map<String, Object> rasteredImgParams,
+                                         RouteLayer route) {
+        String[][] renderGrid = (String[][]) rasteredImgParams.get("render_grid");
+        String[] lastRow = renderGrid[renderGrid.length - 1];
+        return tileKey(tileSet, renderGrid[0][0]) + ":" + lastRow[lastRow.length - 1] + ":"
+                + route.fingerprint();
+    }
+
+    /**
+     * Returns vector tile (x, y) at depth, encoding it the first time it is asked for and
+     * from the cache after that.
+     */
+    private static byte[] getVectorTile(VectorTiles tiles, int depth, int x, int y) {
+        String key = tiles.tileSet().name() + "/" + depth + "/" + x + "/" + y;
+        byte[] tile = VECTOR_TILES.get(key);
+        if (tile == null) {
+            try {
+                tile = tiles.encode(depth, x, y);
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - " + e.getMessage() + ".");
+            }
+            VECTOR_TILES.put(key, tile);
         }
+        return tile;
+    }
 
+    /** Key of a tile in TILES: tile file names repeat across tile sets. */
+    private static String tileKey(TileSet tileSet, String tileName) {
+        return tileSet.name() + "/" + tileName;
     }
 
-    private static BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
+    /**
+     * Writes the images corresponding to rasteredImgParams to the output stream.
+     * In Spring 2016, students had to do this on their own, but in 2017,
+     * we have made this into provided code since it was just a bit too low level.
+     * Tiles are fetched and copied into a pooled canvas in parallel on RENDER_POOL, and
+     * the PNG is compressed in parallel stripes there too.
+     */
+    private static void writeImagesToOutputStream(TileSet tileSet,
+                                                  Map<String, Object> rasteredImageParams,
+                                                  RouteLayer route, ByteArrayOutputStream os) {
+        String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
+        int numVertTiles = renderGrid.length;
+        int numHorizTiles = renderGrid[0].length;
+        int tileSize = tileSet.tileSize();
+
+        BufferedImage img = CANVASES.acquire(numHorizTiles * tileSize, numVertTiles * tileSize);
+        try {
+            int[] canvas = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+            try {
+                RENDER_POOL.submit(() -> IntStream.range(0, numVertTiles * numHorizTiles)
+                    .parallel().forEach(i -> {
+                        int r = i / numHorizTiles, c = i % numHorizTiles;
+                        copyTile(TILES.get(tileKey(tileSet, renderGrid[r][c])), tileSize,
+                                canvas, img.getWidth(), c * tileSize, r * tileSize);
+                    })).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("Compositing failed", e);
+            }
+
+            /* If there is a route, draw it. */
+            double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
+            double ullat = (double) rasteredImageParams.get("raster_ul_lat"); //tiles.get(0).ulp;
+            double lrlon = (double) rasteredImageParams.get("raster_lr_lon"); //tiles.get(0).ulp;
+            double lrlat = (double) rasteredImageParams.get("raster_lr_lat"); //tiles.get(0).ulp;
+
+            final double wdpp = (lrlon - ullon) / img.getWidth();
+            final double hdpp = (ullat - lrlat) / img.getHeight();
+            if (!route.isEmpty()) {
+                Graphics2D g2d = img.createGraphics();
+                route.draw(g2d, ullon, ullat, wdpp, hdpp);
+                g2d.dispose();
+            }
+
+            rasteredImageParams.put("raster_width", img.getWidth());
+            rasteredImageParams.put("raster_height", img.getHeight());
+
             try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
+                PNG_ENCODER.encode(img, os);
+            } catch (IOException e) {
                 e.printStackTrace();
             }
+        } finally {
+            CANVASES.release(img);
         }
-        return tileImg;
     }
 
     /**
-     * Clear the current found route, if it exists.
+     * Copies a TYPE_INT_RGB tile of tileSize pixels square into the canvas pixels with its
+     * upper left corner at (x, y), or fills that square black if the tile is missing.
      */
-    public static void clearRoute() {
-        route = new LinkedList<Long>();
+    private static void copyTile(BufferedImage tile, int tileSize, int[] canvas,
+                                 int canvasWidth, int x, int y) {
+        if (tile == null || tile.getWidth() != tileSize || tile.getHeight() != tileSize) {
+            for (int row = 0; row < tileSize; row++) {
+                int at = (y + row) * canvasWidth + x;
+                Arrays.fill(canvas, at, at + tileSize, 0);
+            }
+            if (tile != null) { // odd-sized tile: copy what fits, as drawImage would
+                tile.getRGB(0, 0, Math.min(tile.getWidth(), tileSize),
+                        Math.min(tile.getHeight(), tileSize), canvas, y * canvasWidth + x,
+                        canvasWidth);
+            }
+            return;
+        }
+        int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+        for (int row = 0; row < tileSize; row++) {
+            System.arraycopy(pixels, row * tileSize, canvas, (y + row) * canvasWidth + x,
+                    tileSize);
+        }
+    }
+
+    /** Returns a fresh, unguessable route token. */
+    private static String newRouteToken() {
+        byte[] bytes = new byte[16];
+        TOKEN_RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Returns the route stored under token, or an empty route if the token is missing,
+     * unknown or expired.
+     */
+    private static RouteLayer getRoute(String token) {
+        RouteLayer route = token == null ? null : ROUTES.get(token);
+        return route == null ? RouteLayer.EMPTY : route;
+    }
+
+    /**
+     * Clear the route stored under token, if it exists.
+     */
+    public static void clearRoute(String token) {
+        if (token != null) {
+            ROUTES.remove(token);
+        }
     }
 
     /**
@@ -336,10 +894,13 @@ public class MapServer {
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes a route and converts it into an HTML friendly
      * String to be passed to the frontend.
      */
-    private static String getDirectionsText() {
+    private static String getDirectionsText(List<Long> route) {
+        if (route.size() < 2) {
+            return "";
+        }
         List<Router.NavigationDirection> directions = Router.routeDirections(graph, route);
         if (directions == null || directions.isEmpty()) {
           return "";
@@ -0,0 +1,298 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder for TYPE_INT_RGB images that compresses horizontal stripes of the image in
+ * parallel.
+ *
+ * Each stripe is filtered (choosing, per row, the PNG filter with the smallest sum of
+ * absolute differences, as libpng does) and deflated independently. Every stripe but the
+ * last ends with a sync flush, which byte-aligns the deflate stream, so the compressed
+ * stripes simply concatenate into one valid zlib stream. The Adler-32 checksum of the whole
+ * stream is combined from the per-stripe checksums. Each stripe is written as its own IDAT
+ * chunk, which PNG allows.
+ *
+ * Stripes start with an empty dictionary, so the output is slightly larger than a single
+ * deflate stream would be.
+ */
+public class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int BYTES_PER_PIXEL = 3;
+    /** Stripes are at least this many rows, so small images are not split needlessly. */
+    private static final int MIN_STRIPE_ROWS = 64;
+    private static final int ADLER_BASE = 65521;
+
+    private final ExecutorService pool;
+    private final int stripes;
+    private final int level;
+
+    /**
+     * @param pool Runs the stripe compressions.
+     * @param stripes Most stripes an image is split into, e.g. the pool's parallelism.
+     * @param level Deflate level, 0 to 9.
+     */
+    public PngEncoder(ExecutorService pool, int stripes, int level) {
+        this.pool = pool;
+        this.stripes = Math.max(1, stripes);
+        this.level = level;
+    }
+
+    /** Encodes image, which must be TYPE_INT_RGB, and writes the PNG to os. */
+    public void encode(BufferedImage image, ByteArrayOutputStream os) throws IOException {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+            throw new IllegalArgumentException("Expected TYPE_INT_RGB, got " + image.getType());
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        int count = Math.max(1, Math.min(stripes, height / MIN_STRIPE_ROWS));
+        List<Future<Stripe>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int first = (int) ((long) height * i / count);
+            int end = (int) ((long) height * (i + 1) / count);
+            boolean last = i == count - 1;
+            futures.add(pool.submit(() -> compress(pixels, width, first, end, last)));
+        }
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.write(SIGNATURE);
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream(13);
+        DataOutputStream header = new DataOutputStream(ihdr);
+        header.writeInt(width);
+        header.writeInt(height);
+        header.writeByte(8); // bit depth
+        header.writeByte(2); // color type: truecolor
+        header.writeByte(0); // compression: deflate
+        header.writeByte(0); // filter method: adaptive
+        header.writeByte(0); // no interlace
+        writeChunk(out, "IHDR", ihdr.toByteArray(), 0, ihdr.size(), null);
+
+        long adler = 1;
+        try {
+            for (int i = 0; i < count; i++) {
+                Stripe stripe = futures.get(i).get();
+                adler = combineAdler(adler, stripe.adler, stripe.rawLength);
+                byte[] prefix = i == 0 ? zlibHeader() : null;
+                if (i == count - 1) {
+                    byte[] data = stripe.data;
+                    int length = stripe.length;
+                    byte[] withAdler = new byte[length + 4];
+                    System.arraycopy(data, 0, withAdler, 0, length);
+                    withAdler[length] = (byte) (adler >>> 24);
+                    withAdler[length + 1] = (byte) (adler >>> 16);
+                    withAdler[length + 2] = (byte) (adler >>> 8);
+                    withAdler[length + 3] = (byte) adler;
+                    writeChunk(out, "IDAT", withAdler, 0, withAdler.length, prefix);
+                } else {
+                    writeChunk(out, "IDAT", stripe.data, 0, stripe.length, prefix);
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("PNG encoding failed", e);
+        }
+        writeChunk(out, "IEND", new byte[0], 0, 0, null);
+        out.flush();
+    }
+
+    /** Compressed bytes of one stripe, with the length and Adler-32 of its input. */
+    private static class Stripe {
+        final byte[] data;
+        final int length;
+        final long adler;
+        final long rawLength;
+
+        Stripe(byte[] data, int length, long adler, long rawLength) {
+            this.data = data;
+            this.length = length;
+            this.adler = adler;
+            this.rawLength = rawLength;
+        }
+    }
+
+    private Stripe compress(int[] pixels, int width, int first, int end, boolean last) {
+        int rowBytes = 1 + width * BYTES_PER_PIXEL;
+        byte[] raw = new byte[rowBytes * (end - first)];
+        byte[] previous = new byte[width * BYTES_PER_PIXEL];
+        byte[] current = new byte[width * BYTES_PER_PIXEL];
+        if (first > 0) {
+            unpackRow(pixels, width, first - 1, previous);
+        }
+        for (int y = first; y < end; y++) {
+            unpackRow(pixels, width, y, current);
+            int filter = chooseFilter(current, previous);
+            int at = (y - first) * rowBytes;
+            raw[at] = (byte) filter;
+            applyFilter(filter, current, previous, raw, at + 1);
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(raw, 0, raw.length);
+        Deflater deflater = new Deflater(level, true);
+        deflater.setInput(raw);
+        if (last) {
+            deflater.finish();
+        }
+        byte[] out = new byte[raw.length / 4 + 64];
+        int length = 0;
+        while (true) {
+            if (length == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            int n = last ? deflater.deflate(out, length, out.length - length)
+                    : deflater.deflate(out, length, out.length - length, Deflater.SYNC_FLUSH);
+            length += n;
+            if (last ? deflater.finished() : length < out.length && deflater.needsInput()) {
+                break;
+            }
+        }
+        deflater.end();
+        return new Stripe(out, length, adler.getValue(), raw.length);
+    }
+
+    private static void unpackRow(int[] pixels, int width, int y, byte[] row) {
+        int p = y * width;
+        for (int x = 0, i = 0; x < width; x++, i += BYTES_PER_PIXEL) {
+            int rgb = pixels[p + x];
+            row[i] = (byte) (rgb >>> 16);
+            row[i + 1] = (byte) (rgb >>> 8);
+            row[i + 2] = (byte) rgb;
+        }
+    }
+
+    /**
+     * Returns the filter (0 none, 1 sub, 2 up, 3 average, 4 paeth) under which row has the
+     * smallest sum of absolute values as signed bytes.
+     */
+    private static int chooseFilter(byte[] row, byte[] prior) {
+        long none = 0, sub = 0, up = 0, average = 0, paeth = 0;
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xff;
+            int a = i >= BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] & 0xff : 0;
+            int b = prior[i] & 0xff;
+            int c = i >= BYTES_PER_PIXEL ? prior[i - BYTES_PER_PIXEL] & 0xff : 0;
+            none += Math.abs((byte) x);
+            sub += Math.abs((byte) (x - a));
+            up += Math.abs((byte) (x - b));
+            average += Math.abs((byte) (x - ((a + b) >>> 1)));
+            paeth += Math.abs((byte) (x - paeth(a, b, c)));
+        }
+        long[] sums = {none, sub, up, average, paeth};
+        int best = 0;
+        for (int f = 1; f < sums.length; f++) {
+            if (sums[f] < sums[best]) {
+                best = f;
+            }
+        }
+        return best;
+    }
+
+    /** Writes row under filter to out starting at offset. */
+    private static void applyFilter(int filter, byte[] row, byte[] prior, byte[] out,
+                                    int offset) {
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xff;
+            int a = i >= BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] & 0xff : 0;
+            int b = prior[i] & 0xff;
+            int predicted;
+            switch (filter) {
+                case 1:
+                    predicted = a;
+                    break;
+                case 2:
+                    predicted = b;
+                    break;
+                case 3:
+                    predicted = (a + b) >>> 1;
+                    break;
+                case 4:
+                    predicted = paeth(a, b, i >= BYTES_PER_PIXEL
+                            ? prior[i - BYTES_PER_PIXEL] & 0xff : 0);
+                    break;
+                default:
+                    predicted = 0;
+            }
+            out[offset + i] = (byte) (x - predicted);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /** The two-byte zlib header for a 32K window at this encoder's level. */
+    private byte[] zlibHeader() {
+        int flevel = level <= 1 ? 0 : level <= 5 ? 1 : level == 6 ? 2 : 3;
+        int header = 0x7800 | (flevel << 6);
+        header += 31 - header % 31;
+        return new byte[]{(byte) (header >>> 8), (byte) header};
+    }
+
+    /**
+     * Adler-32 of the concatenation of two inputs, given the checksum of each and the
+     * length of the second (zlib's adler32_combine).
+     */
+    static long combineAdler(long adler1, long adler2, long length2) {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = rem * sum1 % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= 2L * ADLER_BASE) {
+            sum2 -= 2L * ADLER_BASE;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /** Writes a chunk whose data is prefix (if any) followed by data[offset, offset + length). */
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset,
+                                   int length, byte[] prefix) throws IOException {
+        int prefixLength = prefix == null ? 0 : prefix.length;
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes, 0, typeBytes.length);
+        if (prefix != null) {
+            crc.update(prefix, 0, prefixLength);
+        }
+        crc.update(data, offset, length);
+        out.writeInt(prefixLength + length);
+        out.write(typeBytes);
+        if (prefix != null) {
+            out.write(prefix);
+        }
+        out.write(data, offset, length);
+        out.writeInt((int) crc.getValue());
+    }
+}
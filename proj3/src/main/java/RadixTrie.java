@@ -0,0 +1,488 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static radix trie from strings to lists of values, used by GraphDB for prefix search.
+ *
+ * Chains of single-child nodes are merged, so every edge carries a label of one or more
+ * characters and there are at most twice as many nodes as keys. The nodes are numbered
+ * in breadth-first order and stored in primitive arrays: node i's label is
+ * labels[labelStart[i], labelStart[i + 1]), its children are the nodes
+ * [childStart[i], childStart[i + 1]) sorted by the first character of their labels, and
+ * the keys below it are keys[keyStart[i], keyEnd[i]) in sorted order. A node ends a key
+ * exactly when it has no children or its first key sorts before its first child's. Lookups
+ * walk the labels and binary search the children, so they allocate nothing.
+ *
+ * Keys are ranked by popularity: the more values a key has, the higher it ranks, and ties
+ * go to the key that sorts first. Every node with more than maxTop keys below it stores
+ * its best maxTop keys, so the top k matches of a prefix, for k up to maxTop, cost the
+ * length of the prefix plus k, or plus a ranking of at most maxTop keys for smaller
+ * subtrees.
+ *
+ * Fuzzy lookups walk the trie depth first, extending one row of an edit distance table
+ * (Levenshtein with adjacent transpositions) per character of the path. A branch is left
+ * as soon as no entry of its row, nor a swap from the row before, is within the largest
+ * distance allowed, since no longer string below it can come closer.
+ */
+public class RadixTrie<T> {
+    private final String[] keys;
+    /** The values of keys[k] are values[valueStart[k], valueStart[k + 1]). */
+    private final Object[] values;
+    private final int[] valueStart;
+    private final char[] labels;
+    private final int[] labelStart;
+    private final int[] childStart;
+    private final int[] keyStart;
+    private final int[] keyEnd;
+    private final int maxTop;
+    /** The best keys below node i, best first, are top[topStart[i], topStart[i + 1]). */
+    private final int[] topStart;
+    private final int[] top;
+    /** Length of the longest key, the deepest a fuzzy walk goes. */
+    private final int maxKeyLength;
+
+    /** Builds a trie that keeps no ranked lists. */
+    public RadixTrie(Map<String, ? extends List<? extends T>> entries) {
+        this(entries, 0);
+    }
+
+    /**
+     * Builds the trie in O(total key length + K log K + N maxTop^2) time for K keys and N
+     * nodes.
+     * @param entries The values of each key.
+     * @param maxTop Most ranked matches getTopMatches answers without ranking a whole
+     *               subtree.
+     */
+    public RadixTrie(Map<String, ? extends List<? extends T>> entries, int maxTop) {
+        keys = entries.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        valueStart = new int[keys.length + 1];
+        for (int k = 0; k < keys.length; k++) {
+            valueStart[k + 1] = valueStart[k] + entries.get(keys[k]).size();
+        }
+        values = new Object[valueStart[keys.length]];
+        for (int k = 0; k < keys.length; k++) {
+            List<? extends T> list = entries.get(keys[k]);
+            for (int i = 0; i < list.size(); i++) {
+                values[valueStart[k] + i] = list.get(i);
+            }
+        }
+
+        // Each queued range [lo, hi) of keys shares its first depth characters, consumed
+        // by the node's ancestors; the node's own label runs to the range's common prefix.
+        int capacity = Math.max(1, 2 * keys.length);
+        StringBuilder labelChars = new StringBuilder();
+        int[] labelStarts = new int[capacity + 1];
+        int[] childStarts = new int[capacity + 1];
+        int[] keyStarts = new int[capacity];
+        int[] keyEnds = new int[capacity];
+        ArrayDeque<int[]> queue = new ArrayDeque<>();
+        queue.add(new int[]{0, keys.length, 0});
+        int nodes = 1;
+        int node = 0;
+        while (!queue.isEmpty()) {
+            int[] range = queue.poll();
+            int lo = range[0];
+            int hi = range[1];
+            int depth = range[2];
+            int common = lo == hi ? 0 : commonPrefix(keys[lo], keys[hi - 1]);
+            labelStarts[node] = labelChars.length();
+            if (lo < hi) {
+                labelChars.append(keys[lo], depth, common);
+            }
+            keyStarts[node] = lo;
+            keyEnds[node] = hi;
+            childStarts[node] = nodes;
+            int next = lo;
+            while (next < hi && keys[next].length() == common) {
+                next++;
+            }
+            while (next < hi) {
+                char c = keys[next].charAt(common);
+                int end = next + 1;
+                while (end < hi && keys[end].charAt(common) == c) {
+                    end++;
+                }
+                queue.add(new int[]{next, end, common});
+                nodes++;
+                next = end;
+            }
+            node++;
+        }
+        labelStarts[nodes] = labelChars.length();
+        childStarts[nodes] = nodes;
+        labels = labelChars.toString().toCharArray();
+        labelStart = Arrays.copyOf(labelStarts, nodes + 1);
+        childStart = Arrays.copyOf(childStarts, nodes + 1);
+        keyStart = Arrays.copyOf(keyStarts, nodes);
+        keyEnd = Arrays.copyOf(keyEnds, nodes);
+
+        // Children are numbered after their parents, so a backward pass sees every child's
+        // list before its parent needs it.
+        int longest = 0;
+        for (String key : keys) {
+            longest = Math.max(longest, key.length());
+        }
+        maxKeyLength = longest;
+
+        this.maxTop = Math.max(0, maxTop);
+        int[][] lists = new int[nodes][];
+        int total = 0;
+        for (int i = nodes - 1; i >= 0; i--) {
+            if (keyEnd[i] - keyStart[i] <= this.maxTop) {
+                continue;
+            }
+            int[] best = new int[this.maxTop];
+            int count = 0;
+            if (isKey(i)) {
+                count = insert(best, count, keyStart[i]);
+            }
+            for (int c = childStart[i]; c < childStart[i + 1]; c++) {
+                if (lists[c] != null) {
+                    for (int key : lists[c]) {
+                        count = insert(best, count, key);
+                    }
+                } else {
+                    for (int key = keyStart[c]; key < keyEnd[c]; key++) {
+                        count = insert(best, count, key);
+                    }
+                }
+            }
+            lists[i] = best;
+            total += count;
+        }
+        topStart = new int[nodes + 1];
+        top = new int[total];
+        for (int i = 0; i < nodes; i++) {
+            int length = lists[i] == null ? 0 : lists[i].length;
+            if (length > 0) {
+                System.arraycopy(lists[i], 0, top, topStart[i], length);
+            }
+            topStart[i + 1] = topStart[i] + length;
+        }
+    }
+
+    /** Whether node ends a key, which is then the first key below it. */
+    private boolean isKey(int node) {
+        int first = childStart[node];
+        return keyStart[node] < keyEnd[node]
+                && (first == childStart[node + 1] || keyStart[first] > keyStart[node]);
+    }
+
+    /** Whether key a ranks above key b. */
+    private boolean ranksAbove(int a, int b) {
+        int countA = valueStart[a + 1] - valueStart[a];
+        int countB = valueStart[b + 1] - valueStart[b];
+        return countA > countB || countA == countB && a < b;
+    }
+
+    /**
+     * Inserts key into best[0, count), which is ordered best first, dropping the last key if
+     * best is full.
+     * @return The new count.
+     */
+    private int insert(int[] best, int count, int key) {
+        int at = count;
+        while (at > 0 && ranksAbove(key, best[at - 1])) {
+            at--;
+        }
+        if (at == best.length) {
+            return count;
+        }
+        int moved = Math.min(count, best.length - 1) - at;
+        System.arraycopy(best, at, best, at + 1, moved);
+        best[at] = key;
+        return Math.min(count + 1, best.length);
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the node below which are exactly the keys starting with prefix, or -1 if no
+     * key does.
+     */
+    int find(CharSequence prefix) {
+        int node = 0;
+        int at = 0;
+        while (true) {
+            for (int i = labelStart[node]; i < labelStart[node + 1]; i++) {
+                if (at == prefix.length()) {
+                    return keyStart[node] < keyEnd[node] ? node : -1;
+                }
+                if (labels[i] != prefix.charAt(at++)) {
+                    return -1;
+                }
+            }
+            if (at == prefix.length()) {
+                return keyStart[node] < keyEnd[node] ? node : -1;
+            }
+            node = child(node, prefix.charAt(at));
+            if (node < 0) {
+                return -1;
+            }
+        }
+    }
+
+    /** The child of node whose label starts with c, or -1. */
+    private int child(int node, char c) {
+        int lo = childStart[node];
+        int hi = childStart[node + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char first = labels[labelStart[mid]];
+            if (first < c) {
+                lo = mid + 1;
+            } else if (first > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the values of every key starting with prefix, in key order.
+     * @return The values, or an empty list if no key starts with prefix.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getMatches(CharSequence prefix) {
+        int node = find(prefix);
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        int from = valueStart[keyStart[node]];
+        int to = valueStart[keyEnd[node]];
+        List<T> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add((T) values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first value of each key starting with prefix, in key order.
+     * @return The values, or an empty list if no key starts with prefix.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getFirstMatches(CharSequence prefix) {
+        int node = find(prefix);
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        List<T> result = new ArrayList<>(keyEnd[node] - keyStart[node]);
+        for (int key = keyStart[node]; key < keyEnd[node]; key++) {
+            result.add((T) values[valueStart[key]]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first value of each of the k highest ranked keys starting with prefix,
+     * best first.
+     * @return The values, or an empty list if no key starts with prefix.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getTopMatches(CharSequence prefix, int k) {
+        int node = find(prefix);
+        if (node < 0 || k <= 0) {
+            return Collections.emptyList();
+        }
+        int[] best;
+        int from;
+        int count;
+        if (k <= maxTop && topStart[node] < topStart[node + 1]) {
+            best = top;
+            from = topStart[node];
+            count = Math.min(k, topStart[node + 1] - from);
+        } else {
+            best = new int[Math.min(k, keyEnd[node] - keyStart[node])];
+            from = 0;
+            count = 0;
+            for (int key = keyStart[node]; key < keyEnd[node]; key++) {
+                count = insert(best, count, key);
+            }
+        }
+        List<T> result = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            result.add((T) values[valueStart[best[i]]]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first value of each of the k best keys that start with a string within
+     * maxDistance edits (insertions, deletions, substitutions or swaps of adjacent
+     * characters) of query. Keys closer to the query come first, and keys equally close by
+     * popularity.
+     * @param deadline System.nanoTime() after which the walk stops and returns the best
+     *                 keys found so far.
+     * @return The values, or an empty list if no key is close enough.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getFuzzyMatches(CharSequence query, int maxDistance, int k, long deadline) {
+        if (k <= 0 || keys.length == 0) {
+            return Collections.emptyList();
+        }
+        FuzzyWalk walk = new FuzzyWalk(query, maxDistance, k, deadline);
+        walk.visit(0, 0, query.length());
+        List<T> result = new ArrayList<>(walk.count);
+        for (int i = 0; i < walk.count; i++) {
+            result.add((T) values[valueStart[walk.best[i]]]);
+        }
+        return result;
+    }
+
+    /** State of one getFuzzyMatches walk. */
+    private class FuzzyWalk {
+        final CharSequence query;
+        final int maxDistance;
+        final long deadline;
+        /** rows[i][j] is the distance between the first i characters of the path and the
+         *  first j of the query. */
+        final int[][] rows;
+        /** The smallest entry of each row. */
+        final int[] rowMins;
+        final char[] path;
+        /** The best keys found so far and their distances, best first. */
+        final int[] best;
+        final int[] distances;
+        int count;
+
+        FuzzyWalk(CharSequence query, int maxDistance, int k, long deadline) {
+            this.query = query;
+            this.maxDistance = maxDistance;
+            this.deadline = deadline;
+            rows = new int[maxKeyLength + 1][query.length() + 1];
+            for (int j = 0; j <= query.length(); j++) {
+                rows[0][j] = j;
+            }
+            rowMins = new int[maxKeyLength + 1];
+            path = new char[maxKeyLength];
+            best = new int[Math.min(k, keys.length)];
+            distances = new int[best.length];
+        }
+
+        /**
+         * Walks node, whose label starts depth characters down the path.
+         * @param closest Smallest distance from the query to a prefix of the path so far.
+         * @return False once the deadline has passed.
+         */
+        boolean visit(int node, int depth, int closest) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            for (int i = labelStart[node]; i < labelStart[node + 1]; i++) {
+                path[depth] = labels[i];
+                depth++;
+                rowMins[depth] = extend(depth);
+                closest = Math.min(closest, rows[depth][query.length()]);
+                if (rowMins[depth] > maxDistance && rowMins[depth - 1] + 1 > maxDistance) {
+                    if (closest <= maxDistance) {
+                        addSubtree(node, closest);
+                    }
+                    return true;
+                }
+            }
+            if (closest <= maxDistance && isKey(node)) {
+                add(keyStart[node], closest);
+            }
+            for (int c = childStart[node]; c < childStart[node + 1]; c++) {
+                if (!visit(c, depth, closest)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Fills rows[depth] from the rows above it and returns its smallest entry. */
+        int extend(int depth) {
+            int[] row = rows[depth];
+            int[] above = rows[depth - 1];
+            char c = path[depth - 1];
+            row[0] = depth;
+            int rowMin = depth;
+            for (int j = 1; j <= query.length(); j++) {
+                char q = query.charAt(j - 1);
+                int d = Math.min(Math.min(above[j] + 1, row[j - 1] + 1),
+                        above[j - 1] + (c == q ? 0 : 1));
+                if (depth > 1 && j > 1 && c == query.charAt(j - 2) && path[depth - 2] == q) {
+                    d = Math.min(d, rows[depth - 2][j - 2] + 1);
+                }
+                row[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            return rowMin;
+        }
+
+        /** Adds the keys below node that could rank among the best, all at distance. */
+        void addSubtree(int node, int distance) {
+            if (best.length <= maxTop && topStart[node] < topStart[node + 1]) {
+                for (int i = topStart[node]; i < topStart[node] + best.length; i++) {
+                    add(top[i], distance);
+                }
+            } else {
+                for (int key = keyStart[node]; key < keyEnd[node]; key++) {
+                    add(key, distance);
+                }
+            }
+        }
+
+        void add(int key, int distance) {
+            int at = count;
+            while (at > 0 && (distance < distances[at - 1]
+                    || distance == distances[at - 1] && ranksAbove(key, best[at - 1]))) {
+                at--;
+            }
+            if (at == best.length) {
+                return;
+            }
+            int moved = Math.min(count, best.length - 1) - at;
+            System.arraycopy(best, at, best, at + 1, moved);
+            System.arraycopy(distances, at, distances, at + 1, moved);
+            best[at] = key;
+            distances[at] = distance;
+            count = Math.min(count + 1, best.length);
+        }
+    }
+
+    /** Number of distinct keys. */
+    public int size() {
+        return keys.length;
+    }
+
+    /** Number of nodes, counting the root. */
+    int nodes() {
+        return keyStart.length;
+    }
+
+    /**
+     * Approximate heap footprint of the trie's arrays in bytes, not counting the keys and
+     * values themselves, which are shared with the map it was built from.
+     */
+    public long memoryFootprint() {
+        return CompactGraph.align(CompactGraph.OBJECT_HEADER_BYTES
+                    + 11 * CompactGraph.REFERENCE_BYTES + Integer.BYTES)
+                + CompactGraph.arrayBytes(keys.length, CompactGraph.REFERENCE_BYTES)
+                + CompactGraph.arrayBytes(values.length, CompactGraph.REFERENCE_BYTES)
+                + CompactGraph.arrayBytes(valueStart.length, Integer.BYTES)
+                + CompactGraph.arrayBytes(labels.length, Character.BYTES)
+                + CompactGraph.arrayBytes(labelStart.length, Integer.BYTES)
+                + CompactGraph.arrayBytes(childStart.length, Integer.BYTES)
+                + CompactGraph.arrayBytes(keyStart.length, Integer.BYTES)
+                + CompactGraph.arrayBytes(keyEnd.length, Integer.BYTES)
+                + CompactGraph.arrayBytes(topStart.length, Integer.BYTES)
+                + CompactGraph.arrayBytes(top.length, Integer.BYTES);
+    }
+}
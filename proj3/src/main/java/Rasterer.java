@@ -6,16 +6,49 @@ import java.util.Map;
  * a query result. The getMapRaster method must return a Map containing all
  * seven of the required fields, otherwise the front end code will probably
  * not draw the output correctly.
+ *
+ * Each Rasterer plans rasters for one TileSet, from per-depth tables built once in the
+ * constructor, so planning takes the same time at any depth.
  */
 public class Rasterer {
+    /**
+     * Most pixels a planned raster may have: a 128 MiB canvas, a few times a 4K viewport
+     * with a tile of margin on each side. Larger queries fail rather than allocate it.
+     */
+    static final long MAX_RASTER_PIXELS = 1L << 25;
+
+    private final TileSet tileSet;
+    private final int maxDepth;
+    /** Longitudinal distance per pixel of the tiles at each depth; halves with each depth. */
+    private final double[] lonDPP;
+    /** Longitudinal width of a tile at each depth. */
+    private final double[] tileWidth;
+    /** Latitudinal height of a tile at each depth. */
+    private final double[] tileHeight;
+
+    /** Plans rasters for the Berkeley tiles. */
+    public Rasterer() {
+        this(TileSet.berkeley());
+    }
 
-    private static final int MAX_DEPTH = 7;
-
-    private static final double ROOT_HEIGHT = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
-    private static final double ROOT_WIDTH = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
+    public Rasterer(TileSet tileSet) {
+        this.tileSet = tileSet;
+        maxDepth = tileSet.maxDepth();
+        lonDPP = new double[maxDepth + 1];
+        tileWidth = new double[maxDepth + 1];
+        tileHeight = new double[maxDepth + 1];
+        double rootWidth = tileSet.lrlon() - tileSet.ullon();
+        double rootHeight = tileSet.ullat() - tileSet.lrlat();
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            tileWidth[depth] = rootWidth / (1 << depth);
+            tileHeight[depth] = rootHeight / (1 << depth);
+            double tileLrlon = tileSet.ullon() + tileWidth[depth];
+            lonDPP[depth] = (tileLrlon - tileSet.ullon()) / tileSet.tileSize();
+        }
+    }
 
-    public Rasterer() {
-        // YOUR CODE HERE
+    public TileSet tileSet() {
+        return tileSet;
     }
 
     /**
@@ -44,169 +77,76 @@ public class Rasterer {
      * "raster_lr_lat" : Number, the bounding lower right latitude of the rastered image. <br>
      * "depth"         : Number, the depth of the nodes of the rastered image <br>
      * "query_success" : Boolean, whether the query was able to successfully complete; don't
-     *                    forget to set this to true on success! <br>
+     *                    forget to set this to true on success! It is false for a raster
+     *                    of more than MAX_RASTER_PIXELS pixels. <br>
      */
     public Map<String, Object> getMapRaster(Map<String, Double> params) {
-
-        int depth = getDepth(params.get("lrlon"), params.get("ullon"), params.get("w"));
-        double upLeftLon = params.get("ullon");
-        double upLeftLat = params.get("ullat");
-        double lowRightLon = params.get("lrlon");
-        double lowRightLat = params.get("lrlat");
-
-        double tileWidth = sizeOfTile(ROOT_WIDTH, depth);
-        double tileHeight = sizeOfTile(ROOT_HEIGHT, depth);
-
-        //This is cheap insurance for bad input. TODO test if this actually helps
-        try {
-            Tile topLeftTile = getCornerTile(depth, tileHeight, tileWidth, upLeftLon, upLeftLat);
-            Tile bottomRightTile = getCornerTile(depth, tileHeight, tileWidth, lowRightLon, lowRightLat);
-
-            Tile[][] queryGrid = getQueryGrid(depth, topLeftTile, bottomRightTile);
-
-            String[][] tileNames = convertTilestoStrings(queryGrid);
-            Map<String, Object> results = buildResults(tileNames, topLeftTile.getUllon(), topLeftTile.getUllat(), bottomRightTile.getLrlon(), bottomRightTile.getLrlat(), depth);
-
-//            System.out.println("Paramaters: " + params);
-//            System.out.println("Results: " + results);
-            return results;
-        } catch (Exception e) {
-            Map<String, Object> results = new HashMap<>();
+        double ullon = params.get("ullon");
+        double ullat = params.get("ullat");
+        double lrlon = params.get("lrlon");
+        double lrlat = params.get("lrlat");
+        int depth = getDepth((lrlon - ullon) / params.get("w"));
+
+        int firstX = tileX(depth, ullon);
+        int lastX = tileX(depth, lrlon);
+        int firstY = tileY(depth, ullat);
+        int lastY = tileY(depth, lrlat);
+        Map<String, Object> results = new HashMap<>();
+        long width = (long) (lastX - firstX + 1) * tileSet.tileSize();
+        long height = (long) (lastY - firstY + 1) * tileSet.tileSize();
+        if (lastX < firstX || lastY < firstY || width > MAX_RASTER_PIXELS
+                || height > MAX_RASTER_PIXELS || width * height > MAX_RASTER_PIXELS) {
             results.put("query_success", false);
             return results;
         }
-    }
 
-    private Map<String, Object> buildResults(String[][] tileNames, double ullon, double ullat, double lrlon, double lrlat, int depth) {
-        Map<String, Object> results = new HashMap<>();
-        results.put("render_grid", tileNames);
-        results.put("raster_ul_lon", ullon);
-        results.put("raster_ul_lat", ullat);
-        results.put("raster_lr_lon", lrlon);
-        results.put("raster_lr_lat", lrlat);
+        String[][] renderGrid = new String[lastY - firstY + 1][lastX - firstX + 1];
+        for (int i = 0; i < renderGrid.length; i++) {
+            for (int j = 0; j < renderGrid[i].length; j++) {
+                renderGrid[i][j] = TileArchive.tileName(depth, firstX + j, firstY + i);
+            }
+        }
+        results.put("render_grid", renderGrid);
+        results.put("raster_ul_lon", tileSet.ullon() + tileWidth[depth] * firstX);
+        results.put("raster_ul_lat", tileSet.ullat() - tileHeight[depth] * firstY);
+        results.put("raster_lr_lon", tileSet.ullon() + tileWidth[depth] * (lastX + 1));
+        results.put("raster_lr_lat", tileSet.ullat() - tileHeight[depth] * (lastY + 1));
         results.put("depth", depth);
         results.put("query_success", true);
         return results;
     }
 
-    private String[][] convertTilestoStrings(Tile[][] queryGrid) {
-
-        int ylength = queryGrid.length;
-        int xlength = queryGrid[0].length; //array should never be jagged
-
-        String[][] result = new String[ylength][xlength];
-
-        for (int i = 0; i < ylength; i++) { //copy from array to result array
-            for (int j = 0; j < xlength; j++) {
-                result[i][j] = queryGrid[i][j].toString();
-            }
-        }
-        return result;
-    }
-
-    private Tile[][] getQueryGrid(int depth, Tile topLeftTile, Tile bottomRightTile) {
-        int width =  bottomRightTile.getxVal() - topLeftTile.getxVal() + 1; //plus one for inclusive width/height
-        int height=  bottomRightTile.getyVal() - topLeftTile.getyVal() + 1;
-
-        int startX = topLeftTile.getxVal();
-        int startY = topLeftTile.getyVal();
-
-        int currentX = startX;
-        Tile[][] queryGrid = new Tile[height][width];
-
-        for (int i = 0; i < height; i++){
-            for (int j = 0; j < width; j++) {
-                queryGrid[i][j] = new Tile(depth, currentX, startY);
-                currentX++;
-            }
-            startY++;
-            currentX = startX;
-        }
-        return queryGrid;
-    }
-
-    private Tile getCornerTile(int depth, double tileHeight, double tileWidth, double queryLon, double queryLat) {
-        int tileLrlon = getTileLrlon(depth, tileWidth, queryLon);
-        int tileLrlat = getTileLrlat(depth, tileHeight, queryLat);
-        Tile result = new Tile(depth, tileLrlon, tileLrlat);
-        result.setUllon(MapServer.ROOT_ULLON + (tileWidth * tileLrlon));
-        result.setUllat(MapServer.ROOT_ULLAT - (tileHeight * tileLrlat));
-        result.setLrlon(MapServer.ROOT_ULLON + (tileWidth * (tileLrlon + 1)));
-        result.setLrlat(MapServer.ROOT_ULLAT - (tileHeight * (tileLrlat + 1)));
-        return result;
-    }
-
-    private int getTileLrlon(int depth, double tileWidth, double queryPoint) {
-        int numOfTiles = (int) Math.pow(2,depth);
-        double currentBottomCorner = MapServer.ROOT_ULLON + tileWidth;
-        for (int tileIndex = 0; tileIndex < numOfTiles ; tileIndex++) {
-            if (currentBottomCorner > queryPoint) {
-                return tileIndex;
-            }
-            currentBottomCorner += tileWidth;
-        }
-        return (numOfTiles - 1);
-    }
-
-    private int getTileLrlat(int depth, double tileHeight, double queryPoint) {
-        int numOfTiles = (int) Math.pow(2,depth);
-        double currentBottomCorner = MapServer.ROOT_ULLAT - tileHeight;
-        for (int tileIndex = 0; tileIndex < numOfTiles; tileIndex++) {
-            if (currentBottomCorner < queryPoint) {
-                return tileIndex;
-            }
-            currentBottomCorner -= tileHeight;
+    /**
+     * Returns the shallowest depth whose tiles have at most windowLonDPP longitudinal
+     * distance per pixel, or the deepest level if even those are too coarse.
+     */
+    private int getDepth(double windowLonDPP) {
+        if (!(windowLonDPP > lonDPP[maxDepth])) {
+            return maxDepth;
         }
-        return (numOfTiles - 1);
-    }
-
-
-    /** Returns depth. from 0 to 7. -1 is error */
-    private int getDepth(double lowRightLon, double upLeftLon, double width) { //It's odd that the size in pixels was a floating number.. you can't have half a pixel... This might be some fucked case test where a monitor with 1.5 pixels
-        //Future todo sanitize screen size input to integers.
-
-        double windowLonDPP = calcLonDPP(lowRightLon, upLeftLon, width);
-
-        double tilelowRightLon = calcLowRightLon(MAX_DEPTH);
-        double tileLonDPP  = calcLonDPP(tilelowRightLon, MapServer.ROOT_ULLON, MapServer.TILE_SIZE);
-
-        if (windowLonDPP < tileLonDPP) {
-            return MAX_DEPTH;
+        if (windowLonDPP >= lonDPP[0]) {
+            return 0;
         }
-        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
-            tilelowRightLon = calcLowRightLon(depth);
-            tileLonDPP = calcLonDPP(tilelowRightLon, MapServer.ROOT_ULLON, MapServer.TILE_SIZE);
-            if (tileLonDPP <= windowLonDPP)  {
-                return depth;
-            }
+        // lonDPP halves with each depth, so the answer is ceil(log2(lonDPP[0] / windowLonDPP))
+        // up to rounding, which the table lookups below settle.
+        int depth = Math.min(maxDepth, Math.getExponent(lonDPP[0] / windowLonDPP) + 1);
+        if (depth > 0 && lonDPP[depth - 1] <= windowLonDPP) {
+            depth--;
+        } else if (lonDPP[depth] > windowLonDPP) {
+            depth++;
         }
-
-        return -1;
-    }
-
-    private double calcLonDPP(double lowRightLon, double upLeftLon, double boxWidth) { //tested
-        return ((lowRightLon - upLeftLon) / boxWidth);
+        return depth;
     }
 
-    private double calcLowRightLon(int depth) { //tested
-        double totalLonLength = MapServer.ROOT_ULLON - MapServer.ROOT_LRLON;
-        double tileLength = totalLonLength / (Math.pow(2, depth));
-        double lowRightLon = MapServer.ROOT_ULLON - tileLength;
-        return lowRightLon;
+    /** Column of the tile at depth that contains lon, clamped to the grid. */
+    private int tileX(int depth, double lon) {
+        int x = (int) Math.floor((lon - tileSet.ullon()) / tileWidth[depth]);
+        return Math.max(0, Math.min((1 << depth) - 1, x));
     }
 
-
-    /** returns longitudinal or latitudinal length/width of tile based on zoom level
-     * Maybe I don't understand this. Maybe I'm never supposed to calculate
-     * the latitude
-     * distance of latitude is different depending where you are above/below the
-     * sekidou
-     * */
-    private  double sizeOfTile(double distance, int depth) {
-        return distance / Math.pow(2,depth);
-    }
-
-    public static void main (String[] args) {
-
+    /** Row of the tile at depth that contains lat, clamped to the grid. */
+    private int tileY(int depth, double lat) {
+        int y = (int) Math.floor((tileSet.ullat() - lat) / tileHeight[depth]);
+        return Math.max(0, Math.min((1 << depth) - 1, y));
     }
 }
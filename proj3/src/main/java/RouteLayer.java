@@ -0,0 +1,99 @@
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A route together with the coordinates of its vertices, looked up once when the route is
+ * found rather than from the graph's maps every time the route is drawn. Rasters map
+ * longitude and latitude linearly to pixels, so drawing the route on any raster is only a
+ * scale and offset of these coordinates, and the same coordinates are what clients need
+ * to draw the route themselves.
+ *
+ * Two layers are equal if their routes have the same vertices.
+ */
+public class RouteLayer {
+    /** The layer of an empty route. */
+    public static final RouteLayer EMPTY = new RouteLayer(null, Collections.emptyList());
+
+    private final List<Long> vertices;
+    private final double[] lons;
+    private final double[] lats;
+    private final long fingerprint;
+
+    /**
+     * @param g The graph the route was found in.
+     * @param route The vertex ids of the route, in order.
+     */
+    public RouteLayer(GraphDB g, List<Long> route) {
+        this.vertices = Collections.unmodifiableList(new ArrayList<>(route));
+        this.lons = new double[route.size()];
+        this.lats = new double[route.size()];
+        long h = 1125899906842597L;
+        for (int i = 0; i < lons.length; i++) {
+            long v = vertices.get(i);
+            lons[i] = g.lon(v);
+            lats[i] = g.lat(v);
+            h = 31 * h + v;
+            h ^= h >>> 29;
+        }
+        this.fingerprint = h;
+    }
+
+    /** The vertex ids of the route, in order. */
+    public List<Long> vertices() {
+        return vertices;
+    }
+
+    public boolean isEmpty() {
+        return vertices.isEmpty();
+    }
+
+    /** 64-bit hash of the vertex ids of the route, e.g. for cache keys. */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    /** The route as {lon, lat} pairs, in order. */
+    public double[][] coordinates() {
+        double[][] coordinates = new double[lons.length][];
+        for (int i = 0; i < lons.length; i++) {
+            coordinates[i] = new double[]{lons[i], lats[i]};
+        }
+        return coordinates;
+    }
+
+    /**
+     * Draws the route on a raster whose upper left corner is (ullon, ullat) and whose
+     * pixels span wdpp degrees of longitude and hdpp degrees of latitude.
+     */
+    public void draw(Graphics2D g2d, double ullon, double ullat, double wdpp, double hdpp) {
+        g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
+        g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
+                BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        for (int i = 1; i < lons.length; i++) {
+            g2d.drawLine((int) ((lons[i - 1] - ullon) * (1 / wdpp)),
+                         (int) ((ullat - lats[i - 1]) * (1 / hdpp)),
+                         (int) ((lons[i] - ullon) * (1 / wdpp)),
+                         (int) ((ullat - lats[i]) * (1 / hdpp)));
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RouteLayer)) {
+            return false;
+        }
+        RouteLayer other = (RouteLayer) o;
+        return fingerprint == other.fingerprint && vertices.equals(other.vertices);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(fingerprint);
+    }
+}
@@ -1,4 +1,7 @@
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -12,10 +15,81 @@ import java.util.regex.Pattern;
  */
 public class Router {
     private static final double STARTING_PATH = -999.9;
+    /** Search strategies shortestPath can use. */
+    public enum Algorithm {
+        /** Plain Dijkstra's algorithm. */
+        DIJKSTRA,
+        /** A* ordered by distance so far plus great-circle distance to the destination. */
+        ASTAR,
+        /** Dijkstra's algorithm from both ends at once, stopping when the frontiers meet. */
+        BIDIRECTIONAL_DIJKSTRA,
+        /** Bidirectional search with the great-circle heuristic of A* on both sides. */
+        BIDIRECTIONAL_ASTAR,
+        /**
+         * Bidirectional upward search over GraphDB's Contraction Hierarchy, or A* while the
+         * hierarchy is still being built.
+         */
+        CONTRACTION_HIERARCHIES,
+        /**
+         * A* with lower bounds from GraphDB's Landmarks distance tables, or plain A* while
+         * the tables are still being built.
+         */
+        ALT
+    }
+
+    /** Runs the one-to-many searches of distanceMatrix, off the common pool. */
+    private static final ForkJoinPool MATRIX_POOL =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Isochrone boundaries are simplified until no dropped point is farther than this
+     * fraction of the boundary's bounding-box diagonal from the polygon that is returned.
+     */
+    private static final double ISOCHRONE_TOLERANCE = 0.01;
+
+    /** Reusable search state for the calling thread, rebuilt when the graph changes. */
+    private static final ThreadLocal<Workspace> WORKSPACE = new ThreadLocal<>();
+
+    private static class Workspace {
+        final SearchSpace forward;
+        /** Only allocated once a bidirectional search needs it. */
+        SearchSpace backward;
+        int lastSettled;
+
+        Workspace(CompactGraph graph) {
+            forward = new SearchSpace(graph);
+        }
+
+        SearchSpace backward() {
+            if (backward == null) {
+                backward = new SearchSpace(forward.graph());
+            }
+            return backward;
+        }
+    }
+
+    private static Workspace workspace(CompactGraph cg) {
+        Workspace ws = WORKSPACE.get();
+        if (ws == null || ws.forward.graph() != cg) {
+            ws = new Workspace(cg);
+            WORKSPACE.set(ws);
+        }
+        return ws;
+    }
+
+    /**
+     * Returns the number of vertices the calling thread's most recent shortestPath call
+     * settled, i.e. removed from its fringe.
+     */
+    public static int lastSettledCount() {
+        Workspace ws = WORKSPACE.get();
+        return ws == null ? 0 : ws.lastSettled;
+    }
+
     /**
      * Return a List of longs representing the shortest path from the node
      * closest to a start location and the node closest to the destination
-     * location.
+     * location, found with A*.
      * @param g The graph to use.
      * @param stlon The longitude of the start location.
      * @param stlat The latitude of the start location.
@@ -25,48 +99,314 @@ public class Router {
      */
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
                                           double destlon, double destlat) {
-        HashMap<Long, Double> distTo = new HashMap<>();
-        HashMap<Long, Long> edgeTo = new HashMap<>();
-        HashMap<Long, Boolean> marked = new HashMap<>();
-        PriorityQueue<PQNode> fringe = new PriorityQueue<>();
-        PQNode startNode = new PQNode(g.getNode(g.closest(stlon, stlat)));
-        PQNode destinationNode = new PQNode(g.getNode(g.closest(destlon, destlat)));
-        LinkedList<Long> result = new LinkedList<>();
-        if (startNode.getNode() == null || destinationNode.getNode() == null) { //path to nowhere gets empty list
-            return result;
+        return shortestPath(g, stlon, stlat, destlon, destlat, Algorithm.ASTAR);
+    }
+
+    /**
+     * Like shortestPath above, but with the search strategy chosen by the caller.
+     * @param algorithm The search to run.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat, Algorithm algorithm) {
+        CompactGraph cg = g.compact();
+        long start = g.closest(stlon, stlat);
+        long destination = g.closest(destlon, destlat);
+        Workspace ws = workspace(cg);
+        ws.lastSettled = 0;
+        if (start < 0 || destination < 0) { //path to nowhere gets empty list
+            return new LinkedList<>();
+        }
+        int s = cg.indexOf(start);
+        int t = cg.indexOf(destination);
+        switch (algorithm) {
+            case BIDIRECTIONAL_DIJKSTRA:
+            case BIDIRECTIONAL_ASTAR:
+                return bidirectionalSearch(cg, ws, s, t,
+                        algorithm == Algorithm.BIDIRECTIONAL_ASTAR);
+            case CONTRACTION_HIERARCHIES:
+                ContractionHierarchy hierarchy = g.readyContractionHierarchy();
+                if (hierarchy == null) {
+                    // Still being built; A* finds the same route meanwhile.
+                    return shortestPath(g, stlon, stlat, destlon, destlat, Algorithm.ASTAR);
+                }
+                List<Integer> path = hierarchy.shortestPath(ws.forward, ws.backward(), s, t);
+                ws.lastSettled = ws.forward.settledCount() + ws.backward().settledCount();
+                LinkedList<Long> result = new LinkedList<>();
+                for (int v : path) {
+                    result.add(cg.id(v));
+                }
+                return result;
+            default:
+                SearchSpace space = ws.forward;
+                // Until the landmark tables are ready, ALT runs as plain A*.
+                Landmarks landmarks = algorithm == Algorithm.ALT ? g.readyLandmarks() : null;
+                search(cg, space, s, t, algorithm != Algorithm.DIJKSTRA, landmarks);
+                ws.lastSettled = space.settledCount();
+                return pathTo(cg, space, t);
         }
-        /*todo this can all be broken into methods i think*/
-        fringe.add(startNode);
-        distTo.put(startNode.getID(), 0.0);
-        edgeTo.put(startNode.getID(), null);
-        while (!fringe.isEmpty()) {
-//            evaluateTop()
-            PQNode top = fringe.poll();
-            if (marked.get(top.getID()) != null) {
-                continue;
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from s until t is settled, or A* if useHeuristic is set.
+     * The great-circle distance to t is a consistent heuristic because every edge weight
+     * is itself a great-circle distance, so t's distance is final once it is settled.
+     * Given landmarks, A* uses Landmarks.lowerBound instead; the maximum of consistent
+     * heuristics is consistent too.
+     */
+    private static void search(CompactGraph cg, SearchSpace space, int s, int t,
+                               boolean useHeuristic, Landmarks landmarks) {
+        space.reset(s, useHeuristic ? heuristic(cg, landmarks, s, t) : 0.0);
+        while (space.hasNext()) {
+            int v = space.settleNext();
+            if (v == t) {
+                return;
+            }
+            double distV = space.distTo(v);
+            for (int e = cg.firstEdge(v); e < cg.endEdge(v); e++) {
+                int w = cg.target(e);
+                if (space.isSettled(w)) {
+                    continue;
+                }
+                double distW = distV + cg.weight(e);
+                space.relax(v, w, distW,
+                        useHeuristic ? distW + heuristic(cg, landmarks, w, t) : distW);
             }
-            if (top.getID() == destinationNode.getID()) {
-                break;
+        }
+    }
+
+    private static double heuristic(CompactGraph cg, Landmarks landmarks, int v, int t) {
+        return landmarks == null ? cg.distance(v, t) : landmarks.lowerBound(v, t);
+    }
+
+    /**
+     * Returns the road distance in miles from every source to every target. Each point is
+     * a {lon, lat} pair and is snapped to its closest vertex once. One Dijkstra search runs
+     * per distinct source vertex, stopping as soon as every target vertex is settled, and
+     * the searches run in parallel. Roads are two-way, so when there are fewer targets than
+     * sources the searches start from the targets instead.
+     * @param g The graph to use.
+     * @param sources The origins, one per row of the result.
+     * @param targets The destinations, one per column of the result.
+     * @return distances[i][j] from sources[i] to targets[j], or Double.POSITIVE_INFINITY if
+     * no path exists.
+     */
+    public static double[][] distanceMatrix(GraphDB g, List<double[]> sources,
+                                            List<double[]> targets) {
+        CompactGraph cg = g.compact();
+        int[] from = snap(g, cg, sources);
+        int[] to = snap(g, cg, targets);
+        boolean transpose = to.length < from.length;
+        double[][] rows = oneToMany(cg, transpose ? to : from, transpose ? from : to);
+        if (!transpose) {
+            return rows;
+        }
+        double[][] result = new double[from.length][to.length];
+        for (int i = 0; i < from.length; i++) {
+            for (int j = 0; j < to.length; j++) {
+                result[i][j] = rows[j][i];
+            }
+        }
+        return result;
+    }
+
+    /** Dense indices of the vertices closest to each {lon, lat} point, -1 if none. */
+    private static int[] snap(GraphDB g, CompactGraph cg, List<double[]> points) {
+        int[] vertices = new int[points.size()];
+        for (int i = 0; i < vertices.length; i++) {
+            long id = g.closest(points.get(i)[0], points.get(i)[1]);
+            vertices[i] = id < 0 ? -1 : cg.indexOf(id);
+        }
+        return vertices;
+    }
+
+    private static double[][] oneToMany(CompactGraph cg, int[] from, int[] to) {
+        boolean[] isTarget = new boolean[cg.size()];
+        int distinctTargets = 0;
+        for (int t : to) {
+            if (t >= 0 && !isTarget[t]) {
+                isTarget[t] = true;
+                distinctTargets++;
             }
-            List<Node> adjacentNodes = top.getAdjacentNodes();
-            for (Node node: adjacentNodes) {
-//                relaxEdge(top, node, distTo, edgeTo, fringe, startNode);
-                double distanceNodeToStart = top.getDistance() + g.distance(top.getID(), node.getId());
-                if (distTo.get(node.getId()) == null || distanceNodeToStart < distTo.get(node.getId())) {
-                    distTo.put(node.getId(), distanceNodeToStart);
-                    edgeTo.put(node.getId(), top.getID());
+        }
+        int remaining = distinctTargets;
+        Map<Integer, Integer> rowOf = new HashMap<>();
+        for (int s : from) {
+            rowOf.putIfAbsent(s, rowOf.size());
+        }
+        int[] distinctSources = new int[rowOf.size()];
+        for (Map.Entry<Integer, Integer> entry : rowOf.entrySet()) {
+            distinctSources[entry.getValue()] = entry.getKey();
+        }
+        double[][] rows = new double[distinctSources.length][];
+        try {
+            MATRIX_POOL.submit(() -> IntStream.range(0, rows.length).parallel().forEach(i ->
+                    rows[i] = searchTargets(cg, distinctSources[i], to, isTarget, remaining)
+            )).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Distance matrix failed", e);
+        }
+        double[][] result = new double[from.length][];
+        for (int i = 0; i < from.length; i++) {
+            result[i] = rows[rowOf.get(from[i])].clone();
+        }
+        return result;
+    }
+
+    /** Dijkstra from s until all remaining target vertices are settled. */
+    private static double[] searchTargets(CompactGraph cg, int s, int[] to, boolean[] isTarget,
+                                          int remaining) {
+        double[] row = new double[to.length];
+        Arrays.fill(row, Double.POSITIVE_INFINITY);
+        if (s < 0) {
+            return row;
+        }
+        SearchSpace space = workspace(cg).forward;
+        space.reset(s, 0.0);
+        while (space.hasNext() && remaining > 0) {
+            int v = space.settleNext();
+            if (isTarget[v]) {
+                remaining--;
+            }
+            double distV = space.distTo(v);
+            for (int e = cg.firstEdge(v); e < cg.endEdge(v); e++) {
+                int w = cg.target(e);
+                if (!space.isSettled(w)) {
+                    double distW = distV + cg.weight(e);
+                    space.relax(v, w, distW, distW);
                 }
-                fringe.add(new PQNode(node, distanceNodeToStart));
             }
-            marked.put(top.getID(), true);
         }
-        Long currentNode = destinationNode.getID();
-        result.addFirst(currentNode);
-        while (currentNode != null && currentNode != startNode.getID()) {
-            result.addFirst(edgeTo.get(currentNode));
-            currentNode = edgeTo.get(currentNode);
+        for (int j = 0; j < to.length; j++) {
+            if (to[j] >= 0) {
+                row[j] = space.distTo(to[j]);
+            }
         }
-        return result; // FIXME
+        return row;
+    }
+
+    /**
+     * Finds every vertex within the given road distance of the vertex closest to a point,
+     * with a Dijkstra search that stops once the next vertex on its fringe is over budget.
+     * @param g The graph to use.
+     * @param lon The longitude of the start location.
+     * @param lat The latitude of the start location.
+     * @param miles The distance budget.
+     * @return The reachable vertices and a simplified boundary polygon containing them.
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double miles) {
+        CompactGraph cg = g.compact();
+        Workspace ws = workspace(cg);
+        ws.lastSettled = 0;
+        long start = g.closest(lon, lat);
+        if (start < 0) {
+            return new Isochrone(new long[0], new double[0], new ArrayList<>());
+        }
+        SearchSpace space = ws.forward;
+        space.reset(cg.indexOf(start), 0.0);
+        List<Integer> reached = new ArrayList<>();
+        while (space.hasNext() && space.peekPriority() <= miles) {
+            int v = space.settleNext();
+            reached.add(v);
+            double distV = space.distTo(v);
+            for (int e = cg.firstEdge(v); e < cg.endEdge(v); e++) {
+                int w = cg.target(e);
+                if (!space.isSettled(w)) {
+                    double distW = distV + cg.weight(e);
+                    space.relax(v, w, distW, distW);
+                }
+            }
+        }
+        ws.lastSettled = space.settledCount();
+
+        long[] ids = new long[reached.size()];
+        double[] distances = new double[reached.size()];
+        List<double[]> points = new ArrayList<>(reached.size());
+        double minLon = Double.MAX_VALUE, minLat = Double.MAX_VALUE;
+        double maxLon = -Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+        for (int i = 0; i < ids.length; i++) {
+            int v = reached.get(i);
+            ids[i] = cg.id(v);
+            distances[i] = space.distTo(v);
+            points.add(new double[]{cg.lon(v), cg.lat(v)});
+            minLon = Math.min(minLon, cg.lon(v));
+            maxLon = Math.max(maxLon, cg.lon(v));
+            minLat = Math.min(minLat, cg.lat(v));
+            maxLat = Math.max(maxLat, cg.lat(v));
+        }
+        double tolerance = ISOCHRONE_TOLERANCE * Math.hypot(maxLon - minLon, maxLat - minLat);
+        List<double[]> boundary = Geometry.simplifyHull(Geometry.convexHull(points), tolerance);
+        return new Isochrone(ids, distances, boundary);
+    }
+
+    /**
+     * Searches forward from s and backward from t at the same time, always advancing the
+     * side whose next vertex has the smaller priority. mu is the length of the best s-t
+     * path seen so far through a vertex reached by both sides; once the two smallest
+     * priorities add up to at least mu, no undiscovered path can be shorter.
+     *
+     * With useHeuristic, both sides use the average potential p(v) = (d(v, t) - d(s, v)) / 2
+     * (negated for the backward side), which keeps both searches consistent and lets the
+     * same stopping test apply to the priorities directly.
+     */
+    private static List<Long> bidirectionalSearch(CompactGraph cg, Workspace ws, int s, int t,
+                                                  boolean useHeuristic) {
+        SearchSpace forward = ws.forward;
+        SearchSpace backward = ws.backward();
+        forward.reset(s, potential(cg, s, s, t, useHeuristic));
+        backward.reset(t, -potential(cg, t, s, t, useHeuristic));
+        double mu = s == t ? 0.0 : Double.POSITIVE_INFINITY;
+        int meet = s;
+
+        while (forward.hasNext() && backward.hasNext()
+                && forward.peekPriority() + backward.peekPriority() < mu) {
+            boolean forwardTurn = forward.peekPriority() <= backward.peekPriority();
+            SearchSpace side = forwardTurn ? forward : backward;
+            SearchSpace other = forwardTurn ? backward : forward;
+            double sign = forwardTurn ? 1.0 : -1.0;
+
+            int v = side.settleNext();
+            double distV = side.distTo(v);
+            for (int e = cg.firstEdge(v); e < cg.endEdge(v); e++) {
+                int w = cg.target(e);
+                if (side.isSettled(w)) {
+                    continue;
+                }
+                double distW = distV + cg.weight(e);
+                side.relax(v, w, distW, distW + sign * potential(cg, w, s, t, useHeuristic));
+                double through = side.distTo(w) + other.distTo(w);
+                if (through < mu) {
+                    mu = through;
+                    meet = w;
+                }
+            }
+        }
+        ws.lastSettled = forward.settledCount() + backward.settledCount();
+
+        LinkedList<Long> result = new LinkedList<>();
+        if (mu == Double.POSITIVE_INFINITY) {
+            return result;
+        }
+        result = pathTo(cg, forward, meet);
+        for (int v = backward.edgeTo(meet); v != -1; v = backward.edgeTo(v)) {
+            result.addLast(cg.id(v));
+        }
+        return result;
+    }
+
+    private static double potential(CompactGraph cg, int v, int s, int t, boolean useHeuristic) {
+        return useHeuristic ? (cg.distance(v, t) - cg.distance(s, v)) / 2 : 0.0;
+    }
+
+    /** Follows edgeTo back from t; empty if t was not reached. */
+    private static LinkedList<Long> pathTo(CompactGraph cg, SearchSpace space, int t) {
+        LinkedList<Long> result = new LinkedList<>();
+        if (space.distTo(t) == Double.POSITIVE_INFINITY) {
+            return result;
+        }
+        for (int v = t; v != -1; v = space.edgeTo(v)) {
+            result.addFirst(cg.id(v));
+        }
+        return result;
     }
 
 
@@ -188,6 +528,34 @@ public class Router {
     }
 
 
+    /** The result of an isochrone query. */
+    public static class Isochrone {
+        private final long[] vertices;
+        private final double[] distances;
+        private final List<double[]> boundary;
+
+        Isochrone(long[] vertices, double[] distances, List<double[]> boundary) {
+            this.vertices = vertices;
+            this.distances = distances;
+            this.boundary = boundary;
+        }
+
+        /** Ids of the reachable vertices, nearest first. */
+        public long[] getVertices() {
+            return vertices;
+        }
+
+        /** Road distance in miles to each of getVertices(). */
+        public double[] getDistances() {
+            return distances;
+        }
+
+        /** Counter-clockwise {lon, lat} corners of a polygon around the reachable vertices. */
+        public List<double[]> getBoundary() {
+            return boundary;
+        }
+    }
+
     /**
      * Class to represent a navigation direction, which consists of 3 attributes:
      * a direction to go, a way, and the distance to travel for.
@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+/**
+ * Per-search state for Router, indexed by dense CompactGraph vertex: best known distance,
+ * predecessor, whether the vertex is settled, and the fringe. The arrays are allocated
+ * once per graph and reused; instead of clearing them between searches, every write is
+ * tagged with the current search number, and entries with an older tag read as unvisited.
+ * Not thread safe; Router keeps one per thread.
+ */
+public class SearchSpace {
+    private final CompactGraph graph;
+    private final double[] distTo;
+    private final int[] edgeTo;
+    private final int[] visited;
+    private final int[] settled;
+    private final IndexMinPQ fringe;
+    private int search;
+    private int settledCount;
+
+    public SearchSpace(CompactGraph graph) {
+        this.graph = graph;
+        int n = graph.size();
+        distTo = new double[n];
+        edgeTo = new int[n];
+        visited = new int[n];
+        settled = new int[n];
+        fringe = new IndexMinPQ(n);
+    }
+
+    CompactGraph graph() {
+        return graph;
+    }
+
+    /** Forgets the previous search and seeds the fringe with source at distance 0. */
+    public void reset(int source, double priority) {
+        search++;
+        if (search == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            Arrays.fill(settled, 0);
+            search = 1;
+        }
+        fringe.clear();
+        settledCount = 0;
+        visited[source] = search;
+        distTo[source] = 0.0;
+        edgeTo[source] = -1;
+        fringe.insertOrDecrease(source, priority);
+    }
+
+    public double distTo(int v) {
+        return visited[v] == search ? distTo[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /** Predecessor of v on the best known path, or -1 for the source. */
+    public int edgeTo(int v) {
+        return edgeTo[v];
+    }
+
+    public boolean isSettled(int v) {
+        return settled[v] == search;
+    }
+
+    /**
+     * Records a path to w through v of length distance if it beats the best known one, and
+     * queues w with the given priority. Returns whether the path was an improvement.
+     */
+    public boolean relax(int v, int w, double distance, double priority) {
+        if (distance < distTo(w)) {
+            visited[w] = search;
+            distTo[w] = distance;
+            edgeTo[w] = v;
+            fringe.insertOrDecrease(w, priority);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean hasNext() {
+        return !fringe.isEmpty();
+    }
+
+    /** Priority of the next vertex to be settled. */
+    public double peekPriority() {
+        return fringe.minKey();
+    }
+
+    /** Removes the closest vertex from the fringe and marks it settled. */
+    public int settleNext() {
+        int v = fringe.delMin();
+        settled[v] = search;
+        settledCount++;
+        return v;
+    }
+
+    /** Number of vertices settled since the last reset. */
+    public int settledCount() {
+        return settledCount;
+    }
+}
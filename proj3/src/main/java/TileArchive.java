@@ -0,0 +1,307 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import javax.imageio.ImageIO;
+
+/**
+ * Every tile of the pyramid, depths 0 to maxDepth, packed into one file that is read
+ * through memory mappings, so serving a tile costs no open, stat or read system calls.
+ *
+ * Tiles have fixed slots: the tiles of depth d start at slot (4^d - 1) / 3, the number of
+ * tiles above depth d, and tile (x, y) of that depth is at slot start + y * 2^d + x. The
+ * index holds the offset and length of the PNG bytes of each slot, so a lookup is two
+ * reads from the index.
+ *
+ * Layout (big-endian): magic, format version, maxDepth, the length of the longest tile,
+ * then one (long offset, int length) index entry per slot, then the tile bytes. A slot
+ * whose file was missing has length 0.
+ *
+ * One MappedByteBuffer can cover at most 2 GiB, so larger archives are mapped in chunks
+ * that start every CHUNK_STRIDE bytes and overlap by the longest tile; each tile then lies
+ * entirely within the chunk its offset falls in.
+ */
+public class TileArchive {
+    static final int MAGIC = 0x424d5441; // "BMTA"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4 + 4 + 4 + 4;
+    static final int INDEX_ENTRY_BYTES = 8 + 4;
+    /**
+     * Deepest level an archive can hold: the index has an entry for every slot, and must
+     * fit in one mapping.
+     */
+    static final int MAX_DEPTH = 13;
+    private static final long CHUNK_STRIDE = 1L << 30;
+    /** Size of each of the index and tile buffers pack writes through. */
+    private static final int PACK_BUFFER_BYTES = 1 << 16;
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private final int maxDepth;
+    private final ByteBuffer index;
+    private final MappedByteBuffer[] chunks;
+
+    private TileArchive(int maxDepth, ByteBuffer index, MappedByteBuffer[] chunks) {
+        this.maxDepth = maxDepth;
+        this.index = index;
+        this.chunks = chunks;
+    }
+
+    /** Number of slots for depths 0 to maxDepth: (4^(maxDepth + 1) - 1) / 3. */
+    static int slotCount(int maxDepth) {
+        return slot(maxDepth + 1, 0, 0);
+    }
+
+    /** Slot of tile (x, y) at depth. */
+    static int slot(int depth, int x, int y) {
+        return ((1 << (2 * depth)) - 1) / 3 + (y << depth) + x;
+    }
+
+    /**
+     * Packs the tiles under imgRoot, named d{depth}_x{x}_y{y}.png, into one archive. Each
+     * tile is read once, and its index entry and bytes go out through small buffers to
+     * their places in the file, so packing takes the same little memory at any depth
+     * however many slots the pyramid has.
+     * @param imgRoot Directory holding the tile files.
+     * @param maxDepth Deepest level to pack.
+     * @param out The archive file to write.
+     * @return Number of tiles packed.
+     */
+    public static int pack(File imgRoot, int maxDepth, File out) throws IOException {
+        if (maxDepth < 0 || maxDepth > MAX_DEPTH) {
+            throw new IllegalArgumentException("A tile archive holds depths 0 to " + MAX_DEPTH
+                    + ", not " + maxDepth);
+        }
+        ByteBuffer index = ByteBuffer.allocate(PACK_BUFFER_BYTES / INDEX_ENTRY_BYTES
+                * INDEX_ENTRY_BYTES);
+        ByteBuffer data = ByteBuffer.allocate(PACK_BUFFER_BYTES);
+        long indexPosition = HEADER_BYTES;
+        long offset = HEADER_BYTES + (long) slotCount(maxDepth) * INDEX_ENTRY_BYTES;
+        long dataPosition = offset;
+        int maxLength = 0;
+        int packed = 0;
+        try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int depth = 0; depth <= maxDepth; depth++) {
+                for (int y = 0; y < 1 << depth; y++) {
+                    for (int x = 0; x < 1 << depth; x++) {
+                        File tile = new File(imgRoot, tileName(depth, x, y));
+                        byte[] bytes = tile.isFile() ? Files.readAllBytes(tile.toPath())
+                                : NO_BYTES;
+                        if (!index.hasRemaining()) {
+                            indexPosition += flush(channel, index, indexPosition);
+                        }
+                        index.putLong(offset);
+                        index.putInt(bytes.length);
+                        if (bytes.length > data.remaining()) {
+                            dataPosition += flush(channel, data, dataPosition);
+                        }
+                        if (bytes.length > data.remaining()) {
+                            dataPosition += write(channel, ByteBuffer.wrap(bytes), dataPosition);
+                        } else {
+                            data.put(bytes);
+                        }
+                        offset += bytes.length;
+                        maxLength = Math.max(maxLength, bytes.length);
+                        if (bytes.length > 0) {
+                            packed++;
+                        }
+                    }
+                }
+            }
+            flush(channel, index, indexPosition);
+            flush(channel, data, dataPosition);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(maxDepth);
+            header.putInt(maxLength);
+            flush(channel, header, 0);
+        }
+        return packed;
+    }
+
+    /**
+     * Writes what was put in buffer to the channel at position and clears it.
+     * @return The number of bytes written.
+     */
+    private static int flush(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        ((Buffer) buffer).flip();
+        int written = write(channel, buffer, position);
+        ((Buffer) buffer).clear();
+        return written;
+    }
+
+    /** Writes the remaining bytes of buffer to the channel at position and returns their count. */
+    private static int write(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    /**
+     * Maps an archive written by pack.
+     * @return The archive, or null if the file is missing or not a valid archive.
+     */
+    public static TileArchive open(File archive) {
+        if (!archive.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                return null;
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            int maxDepth = header.getInt();
+            int maxLength = header.getInt();
+            if (maxDepth < 0 || maxDepth > MAX_DEPTH) {
+                return null;
+            }
+            long indexBytes = (long) slotCount(maxDepth) * INDEX_ENTRY_BYTES;
+            if (HEADER_BYTES + indexBytes > size) {
+                return null;
+            }
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+                    indexBytes);
+            int chunkCount = (int) ((size - 1) / CHUNK_STRIDE) + 1;
+            MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+            for (int k = 0; k < chunks.length; k++) {
+                long start = k * CHUNK_STRIDE;
+                long length = Math.min(CHUNK_STRIDE + maxLength, size - start);
+                chunks[k] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+            TileArchive result = new TileArchive(maxDepth, index, chunks);
+            int last = slotCount(maxDepth) - 1;
+            if (result.offset(last) + result.length(last) > size) {
+                return null;
+            }
+            return result;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    private long offset(int slot) {
+        return index.getLong(slot * INDEX_ENTRY_BYTES);
+    }
+
+    private int length(int slot) {
+        return index.getInt(slot * INDEX_ENTRY_BYTES + 8);
+    }
+
+    /**
+     * Returns the PNG bytes of a tile as a read-only view of the mapping, or null if the
+     * tile is outside the pyramid or was missing when the archive was packed.
+     */
+    public ByteBuffer get(int depth, int x, int y) {
+        if (depth < 0 || depth > maxDepth || x < 0 || y < 0
+                || x >= 1 << depth || y >= 1 << depth) {
+            return null;
+        }
+        int slot = slot(depth, x, y);
+        int length = length(slot);
+        if (length == 0) {
+            return null;
+        }
+        long offset = offset(slot);
+        int chunk = (int) (offset / CHUNK_STRIDE);
+        ByteBuffer tile = chunks[chunk].duplicate();
+        int position = (int) (offset - chunk * CHUNK_STRIDE);
+        tile.position(position).limit(position + length);
+        return tile.slice();
+    }
+
+    /**
+     * Returns the PNG bytes of the tile with the given file name, e.g. d3_x1_y2.png, or
+     * null if it is not in the archive.
+     */
+    public ByteBuffer get(String name) {
+        int[] dxy = parseTileName(name);
+        return dxy == null ? null : get(dxy[0], dxy[1], dxy[2]);
+    }
+
+    /** Decodes the tile with the given file name straight from the mapping. */
+    public BufferedImage read(String name) throws IOException {
+        ByteBuffer png = get(name);
+        if (png == null) {
+            throw new IOException("No tile " + name + " in archive");
+        }
+        return ImageIO.read(new ByteBufferInputStream(png));
+    }
+
+    static String tileName(int depth, int x, int y) {
+        return "d" + depth + "_x" + x + "_y" + y + ".png";
+    }
+
+    /** Returns {depth, x, y} for a name of the form d{depth}_x{x}_y{y}.png, else null. */
+    static int[] parseTileName(String name) {
+        int xAt = name.indexOf("_x");
+        int yAt = name.indexOf("_y", xAt + 2);
+        int dot = name.indexOf('.', yAt + 2);
+        if (!name.startsWith("d") || xAt < 0 || yAt < 0 || dot < 0) {
+            return null;
+        }
+        try {
+            return new int[]{Integer.parseInt(name.substring(1, xAt)),
+                Integer.parseInt(name.substring(xAt + 2, yAt)),
+                Integer.parseInt(name.substring(yAt + 2, dot))};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Reads a ByteBuffer without copying it into a byte[] first. */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.min(n, buf.remaining());
+            buf.position(buf.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+}
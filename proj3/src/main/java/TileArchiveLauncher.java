@@ -0,0 +1,26 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Packs the tile images into the single archive an ARCHIVE TileSet maps, instead of
+ * reading one file per tile. Rerun it whenever the tiles change.
+ * Usage: TileArchiveLauncher [tile directory] [archive path] [max depth]
+ * With no arguments it packs the Berkeley tiles.
+ */
+public class TileArchiveLauncher {
+    public static void main(String[] args) throws IOException {
+        String imgRoot = args.length > 0 ? args[0] : TileSet.BERKELEY_IMG_ROOT;
+        String archivePath = args.length > 1 ? args[1] : TileSet.BERKELEY_ARCHIVE;
+        int maxDepth = args.length > 2 ? Integer.parseInt(args[2]) : TileSet.BERKELEY_MAX_DEPTH;
+
+        long start = System.nanoTime();
+        int packed = TileArchive.pack(new File(imgRoot), maxDepth, new File(archivePath));
+        long written = System.nanoTime();
+        System.out.println("Packed " + packed + " of " + TileArchive.slotCount(maxDepth)
+                + " tiles into " + archivePath + " (" + new File(archivePath).length()
+                + " bytes) in " + (written - start) / 1000000 + " ms.");
+        if (TileArchive.open(new File(archivePath)) == null) {
+            System.out.println("Could not open " + archivePath + " after writing it.");
+        }
+    }
+}
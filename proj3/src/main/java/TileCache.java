@@ -0,0 +1,196 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decoded map tiles, keyed by tile file name, held within a byte budget and evicted least
+ * recently used first. Tiles are stored as TYPE_INT_RGB, the type MapServer composites
+ * into, so drawing one is a plain pixel copy.
+ *
+ * Concurrent requests for the same missing tile share one load: the first caller decodes
+ * it, and the others wait on its future instead of reading the same file again.
+ */
+public class TileCache {
+    /** Reads and decodes the tile with the given name. */
+    public interface Loader {
+        BufferedImage load(String name) throws IOException;
+    }
+
+    private final long maxBytes;
+    private final Loader loader;
+    /** In access order, so iteration starts at the least recently used tile. */
+    private final LinkedHashMap<String, BufferedImage> tiles =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> loading =
+            new ConcurrentHashMap<>();
+    private long bytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+
+    /**
+     * @param maxBytes Most bytes of decoded pixels kept at once.
+     * @param loader Decodes a tile on a miss.
+     */
+    public TileCache(long maxBytes, Loader loader) {
+        this.maxBytes = maxBytes;
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the decoded tile, loading it on a miss.
+     * @return The tile, or null if it could not be loaded.
+     */
+    public BufferedImage get(String name) {
+        BufferedImage tile = lookup(name);
+        if (tile != null) {
+            hits.incrementAndGet();
+            return tile;
+        }
+        misses.incrementAndGet();
+        return loadOnce(name);
+    }
+
+    /**
+     * Loads the tile ahead of use if it is not cached, without counting a hit or miss; a
+     * cached tile just becomes the most recently used.
+     * @return Whether the tile had to be loaded.
+     */
+    public boolean prefetch(String name) {
+        if (lookup(name) != null) {
+            return false;
+        }
+        prefetches.incrementAndGet();
+        loadOnce(name);
+        return true;
+    }
+
+    /** Loads a tile, or waits for the load already in flight for it. */
+    private BufferedImage loadOnce(String name) {
+        CompletableFuture<BufferedImage> mine = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> inFlight = loading.putIfAbsent(name, mine);
+        if (inFlight != null) {
+            return inFlight.join();
+        }
+        try {
+            BufferedImage tile = lookup(name); // another load may have finished since the first lookup
+            if (tile == null) {
+                tile = load(name);
+                if (tile != null) {
+                    store(name, tile);
+                }
+            }
+            mine.complete(tile);
+            return tile;
+        } finally {
+            mine.complete(null); // no-op unless load threw
+            loading.remove(name, mine);
+        }
+    }
+
+    private synchronized BufferedImage lookup(String name) {
+        return tiles.get(name);
+    }
+
+    private BufferedImage load(String name) {
+        try {
+            BufferedImage image = loader.load(name);
+            if (image != null) {
+                return toRgb(image);
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+        loadFailures.incrementAndGet();
+        return null;
+    }
+
+    private synchronized void store(String name, BufferedImage tile) {
+        BufferedImage previous = tiles.put(name, tile);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += sizeOf(tile);
+        Iterator<BufferedImage> eldest = tiles.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            BufferedImage evicted = eldest.next();
+            if (evicted == tile) {
+                break; // always keep the tile just loaded, even if it alone is over budget
+            }
+            eldest.remove();
+            bytes -= sizeOf(evicted);
+            evictions.incrementAndGet();
+        }
+    }
+
+    /** Returns image itself if it is already TYPE_INT_RGB, or an RGB copy of it. */
+    static BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics g = rgb.getGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return rgb;
+    }
+
+    private static long sizeOf(BufferedImage tile) {
+        return (long) tile.getWidth() * tile.getHeight() * Integer.BYTES;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /** Number of misses whose tile could not be loaded. */
+    public long loadFailures() {
+        return loadFailures.get();
+    }
+
+    /** Number of tiles prefetch found missing and loaded. */
+    public long prefetches() {
+        return prefetches.get();
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    /** Bytes of decoded pixels currently held. */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /** All counters and the current size, e.g. for a stats endpoint. */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", hits());
+        stats.put("misses", misses());
+        stats.put("evictions", evictions());
+        stats.put("load_failures", loadFailures());
+        stats.put("prefetches", prefetches());
+        stats.put("tiles", size());
+        stats.put("bytes", bytes());
+        stats.put("max_bytes", maxBytes);
+        return stats;
+    }
+}
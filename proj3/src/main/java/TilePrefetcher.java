@@ -0,0 +1,182 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Warms a TileCache with the tiles each client is likely to ask for next, in the
+ * background, so panning and zooming find their tiles decoded.
+ *
+ * After every raster, the tiles of its grid's one-tile ring are queued, those in the
+ * direction the client last panned first. When the depth changed since the client's
+ * previous raster, the tiles one more level in the same direction are queued ahead of the
+ * ring: the children of the middle half of the grid when zooming in, or the parents of the
+ * grid and a half-grid margin around it when zooming out.
+ *
+ * Loads run on a few minimum-priority threads fed by a bounded queue, which drops its
+ * oldest plan when full. A plan stops as soon as its client has been served a newer
+ * raster, so a fast-moving client never has more than one useful plan in flight.
+ */
+public class TilePrefetcher {
+    /** The grid of tiles most recently served to a client. */
+    static class Viewport {
+        final TileSet tileSet;
+        final int depth;
+        final int firstX, firstY, lastX, lastY;
+
+        Viewport(TileSet tileSet, int depth, int firstX, int firstY, int lastX, int lastY) {
+            this.tileSet = tileSet;
+            this.depth = depth;
+            this.firstX = firstX;
+            this.firstY = firstY;
+            this.lastX = lastX;
+            this.lastY = lastY;
+        }
+    }
+
+    private final TileCache cache;
+    private final BiFunction<TileSet, String, String> tileKey;
+    private final ThreadPoolExecutor executor;
+    /** Each client's latest viewport; a plan is stale once its viewport is replaced. */
+    private final BoundedCache<String, Viewport> viewports;
+    private final AtomicLong plans = new AtomicLong();
+    private final AtomicLong droppedPlans = new AtomicLong();
+
+    /**
+     * @param cache The cache to warm.
+     * @param tileKey The key of a tile of a tile set in cache.
+     * @param threads Number of background loading threads.
+     * @param queueCapacity Most plans waiting at once.
+     * @param maxClients Most clients whose viewports are remembered.
+     * @param ttl How long a client's viewport is remembered without a new raster.
+     * @param unit Unit of ttl.
+     */
+    public TilePrefetcher(TileCache cache, BiFunction<TileSet, String, String> tileKey,
+                          int threads, int queueCapacity, int maxClients, long ttl,
+                          TimeUnit unit) {
+        this.cache = cache;
+        this.tileKey = tileKey;
+        this.viewports = new BoundedCache<>(maxClients, ttl, unit);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), r -> {
+                Thread thread = new Thread(r, "tile-prefetch");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardOldestPolicy() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                    droppedPlans.incrementAndGet();
+                    super.rejectedExecution(r, e);
+                }
+            });
+    }
+
+    /**
+     * Records that client was served renderGrid from tileSet and queues the tiles it is
+     * likely to need next.
+     */
+    public void viewed(String client, TileSet tileSet, String[][] renderGrid) {
+        String[] lastRow = renderGrid[renderGrid.length - 1];
+        int[] first = TileArchive.parseTileName(renderGrid[0][0]);
+        int[] last = TileArchive.parseTileName(lastRow[lastRow.length - 1]);
+        if (first == null || last == null) {
+            return;
+        }
+        Viewport current = new Viewport(tileSet, first[0], first[1], first[2], last[1],
+                last[2]);
+        Viewport previous = viewports.get(client);
+        viewports.put(client, current);
+        List<int[]> tiles = plan(previous, current);
+        if (tiles.isEmpty()) {
+            return;
+        }
+        plans.incrementAndGet();
+        executor.execute(() -> {
+            for (int[] tile : tiles) {
+                if (viewports.get(client) != current) {
+                    return;
+                }
+                cache.prefetch(tileKey.apply(tileSet,
+                        TileArchive.tileName(tile[0], tile[1], tile[2])));
+            }
+        });
+    }
+
+    /**
+     * The tiles to warm after previous and then current were served to the same client, as
+     * {depth, x, y} in the order to load them.
+     * @param previous The client's viewport before current, or null.
+     */
+    static List<int[]> plan(Viewport previous, Viewport current) {
+        List<int[]> tiles = new ArrayList<>();
+        int width = current.lastX - current.firstX + 1;
+        int height = current.lastY - current.firstY + 1;
+        boolean sameTileSet = previous != null && previous.tileSet == current.tileSet;
+
+        if (sameTileSet && current.depth > previous.depth
+                && current.depth < current.tileSet.maxDepth()) {
+            addRect(tiles, current.tileSet, current.depth + 1,
+                    2 * current.firstX + width / 2, 2 * current.firstY + height / 2,
+                    2 * current.lastX + 1 - width / 2, 2 * current.lastY + 1 - height / 2);
+        } else if (sameTileSet && current.depth < previous.depth && current.depth > 0) {
+            addRect(tiles, current.tileSet, current.depth - 1,
+                    Math.max(0, current.firstX - width / 2) / 2,
+                    Math.max(0, current.firstY - height / 2) / 2,
+                    (current.lastX + width / 2) / 2, (current.lastY + height / 2) / 2);
+        }
+
+        List<int[]> ring = new ArrayList<>();
+        for (int x = current.firstX - 1; x <= current.lastX + 1; x++) {
+            addTile(ring, current.tileSet, current.depth, x, current.firstY - 1);
+            addTile(ring, current.tileSet, current.depth, x, current.lastY + 1);
+        }
+        for (int y = current.firstY; y <= current.lastY; y++) {
+            addTile(ring, current.tileSet, current.depth, current.firstX - 1, y);
+            addTile(ring, current.tileSet, current.depth, current.lastX + 1, y);
+        }
+        if (sameTileSet && current.depth == previous.depth) {
+            // Twice the moves of the grid's center, and twice each tile's offset from it.
+            int dx = current.firstX + current.lastX - previous.firstX - previous.lastX;
+            int dy = current.firstY + current.lastY - previous.firstY - previous.lastY;
+            int centerX = current.firstX + current.lastX;
+            int centerY = current.firstY + current.lastY;
+            ring.sort(Comparator.comparingLong(
+                t -> -((long) dx * (2 * t[1] - centerX) + (long) dy * (2 * t[2] - centerY))));
+        }
+        tiles.addAll(ring);
+        return tiles;
+    }
+
+    /** Adds the tiles [firstX, lastX] x [firstY, lastY] at depth that exist, row by row. */
+    private static void addRect(List<int[]> tiles, TileSet tileSet, int depth, int firstX,
+                                int firstY, int lastX, int lastY) {
+        for (int y = firstY; y <= lastY; y++) {
+            for (int x = firstX; x <= lastX; x++) {
+                addTile(tiles, tileSet, depth, x, y);
+            }
+        }
+    }
+
+    private static void addTile(List<int[]> tiles, TileSet tileSet, int depth, int x, int y) {
+        int side = 1 << depth;
+        if (depth <= tileSet.maxDepth() && x >= 0 && y >= 0 && x < side && y < side) {
+            tiles.add(new int[]{depth, x, y});
+        }
+    }
+
+    /** Number of plans queued and dropped unstarted, and current queue length. */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("plans", plans.get());
+        stats.put("dropped_plans", droppedPlans.get());
+        stats.put("queued_plans", executor.getQueue().size());
+        return stats;
+    }
+}
@@ -0,0 +1,213 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import javax.imageio.ImageIO;
+
+/**
+ * Describes one tile pyramid: the bounding box of its root tile, its deepest level, the
+ * size of its square tiles in pixels, and where the tiles are stored. Tile (x, y) at depth
+ * d is named d{d}_x{x}_y{y}.png; x counts from the west edge and y from the north edge.
+ *
+ * Tile sets other than the Berkeley one are described by properties files, e.g.
+ * <pre>
+ * name=oakland
+ * ullon=-122.3437
+ * ullat=37.8903
+ * lrlon=-122.1679
+ * lrlat=37.7516
+ * max_depth=18
+ * tile_size=256
+ * backend=files
+ * path=oakland_imgs
+ * </pre>
+ * where backend is files (one PNG per tile in the path directory) or archive (a
+ * TileArchive file), and a relative path is resolved against the properties file's
+ * directory. The name defaults to the file name without its extension, and tile_size to
+ * 256.
+ */
+public class TileSet {
+    /** How the tiles of a set are stored. */
+    public enum Backend { FILES, ARCHIVE }
+
+    /** Deepest level whose 1 << depth tiles per side fit in an int. */
+    static final int MAX_DEPTH = 30;
+    static final int BERKELEY_MAX_DEPTH = 7;
+    static final String BERKELEY_IMG_ROOT = "../library-sp18/data/proj3_imgs/";
+    static final String BERKELEY_ARCHIVE = "../library-sp18/data/proj3_imgs.tiles";
+    private static final String SUFFIX = ".properties";
+
+    private final String name;
+    private final double ullon, ullat, lrlon, lrlat;
+    private final int maxDepth;
+    private final int tileSize;
+    private final Backend backend;
+    private final File path;
+    /** Mapped on the first read from an ARCHIVE set. */
+    private TileArchive archive;
+
+    public TileSet(String name, double ullon, double ullat, double lrlon, double lrlat,
+                   int maxDepth, int tileSize, Backend backend, File path) {
+        if (!(ullon < lrlon) || !(lrlat < ullat)) {
+            throw new IllegalArgumentException("Tile set " + name + " has an empty bounding "
+                    + "box");
+        }
+        if (maxDepth < 0 || maxDepth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Tile set " + name + " has max depth "
+                    + maxDepth + "; it must be between 0 and " + MAX_DEPTH);
+        }
+        if (backend == Backend.ARCHIVE && maxDepth > TileArchive.MAX_DEPTH) {
+            throw new IllegalArgumentException("Tile set " + name + " is too deep for a tile "
+                    + "archive, which holds at most depth " + TileArchive.MAX_DEPTH);
+        }
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile set " + name + " has tile size "
+                    + tileSize);
+        }
+        this.name = name;
+        this.ullon = ullon;
+        this.ullat = ullat;
+        this.lrlon = lrlon;
+        this.lrlat = lrlat;
+        this.maxDepth = maxDepth;
+        this.tileSize = tileSize;
+        this.backend = backend;
+        this.path = path;
+    }
+
+    /**
+     * The Berkeley tiles the project ships with, read from the packed archive if
+     * TileArchiveLauncher has written one, and from the tile directory otherwise.
+     */
+    public static TileSet berkeley() {
+        File archive = new File(BERKELEY_ARCHIVE);
+        return new TileSet("berkeley", MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+                MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT, BERKELEY_MAX_DEPTH,
+                MapServer.TILE_SIZE, archive.isFile() ? Backend.ARCHIVE : Backend.FILES,
+                archive.isFile() ? archive : new File(BERKELEY_IMG_ROOT));
+    }
+
+    /**
+     * Reads a tile set from a properties file in the format described above.
+     * @throws IllegalArgumentException If a property is missing or invalid.
+     */
+    public static TileSet load(File file) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        }
+        String fileName = file.getName();
+        String name = props.getProperty("name", fileName.endsWith(SUFFIX)
+                ? fileName.substring(0, fileName.length() - SUFFIX.length()) : fileName);
+        String backend = required(props, file, "backend");
+        File path = new File(required(props, file, "path"));
+        if (!path.isAbsolute()) {
+            path = new File(file.getAbsoluteFile().getParentFile(), path.getPath());
+        }
+        try {
+            return new TileSet(name,
+                    Double.parseDouble(required(props, file, "ullon")),
+                    Double.parseDouble(required(props, file, "ullat")),
+                    Double.parseDouble(required(props, file, "lrlon")),
+                    Double.parseDouble(required(props, file, "lrlat")),
+                    Integer.parseInt(required(props, file, "max_depth")),
+                    Integer.parseInt(props.getProperty("tile_size", "256").trim()),
+                    Backend.valueOf(backend.toUpperCase()), path);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads every *.properties file in dir, in file name order.
+     * @return The tile sets, or an empty list if dir does not exist.
+     */
+    public static List<TileSet> loadAll(File dir) throws IOException {
+        List<TileSet> tileSets = new ArrayList<>();
+        File[] files = dir.listFiles((d, fileName) -> fileName.endsWith(SUFFIX));
+        if (files == null) {
+            return tileSets;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            tileSets.add(load(file));
+        }
+        return tileSets;
+    }
+
+    private static String required(Properties props, File file, String key) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException(file + " is missing " + key);
+        }
+        return value.trim();
+    }
+
+    /** Decodes the tile with the given file name, e.g. d3_x1_y2.png. */
+    public BufferedImage read(String tileName) throws IOException {
+        if (backend == Backend.ARCHIVE) {
+            return archive().read(tileName);
+        }
+        BufferedImage tile = ImageIO.read(new File(path, tileName));
+        if (tile == null) {
+            throw new IOException("Could not decode " + tileName + " in " + path);
+        }
+        return tile;
+    }
+
+    private synchronized TileArchive archive() throws IOException {
+        if (archive == null) {
+            archive = TileArchive.open(path);
+            if (archive == null) {
+                throw new IOException(path + " is not a tile archive");
+            }
+        }
+        return archive;
+    }
+
+    /** Whether (lon, lat) lies within the root tile. */
+    public boolean contains(double lon, double lat) {
+        return ullon <= lon && lon <= lrlon && lrlat <= lat && lat <= ullat;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public double ullon() {
+        return ullon;
+    }
+
+    public double ullat() {
+        return ullat;
+    }
+
+    public double lrlon() {
+        return lrlon;
+    }
+
+    public double lrlat() {
+        return lrlat;
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    public int tileSize() {
+        return tileSize;
+    }
+
+    public Backend backend() {
+        return backend;
+    }
+
+    public File path() {
+        return path;
+    }
+}
@@ -0,0 +1,239 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Static inverted index from the space-separated tokens of string keys to the keys, so
+ * a query can match words anywhere in a key rather than only at its start, e.g. "coffee"
+ * finds "peets coffee".
+ *
+ * Keys are numbered in sorted order. The posting list of each distinct token, the keys
+ * containing it in ascending order, is the slice postings[postingStart[t],
+ * postingStart[t + 1]) for the t-th token in sorted order. A query's complete tokens are
+ * looked up exactly and their lists intersected, shortest first, by galloping through the
+ * longer ones. The last token of a query that does not end with a space may still be
+ * being typed, so it only has to start a token of the key. Matches are ranked by
+ * popularity as in RadixTrie. The index is immutable, so queries need no locking.
+ */
+public class TokenIndex<T> {
+    private final String[] keys;
+    /** The values of keys[k] are values[valueStart[k], valueStart[k + 1]). */
+    private final Object[] values;
+    private final int[] valueStart;
+    private final String[] tokens;
+    private final int[] postingStart;
+    private final int[] postings;
+
+    /**
+     * Builds the index in O(total key length + K log K) time.
+     * @param entries The values of each key.
+     */
+    public TokenIndex(Map<String, ? extends List<? extends T>> entries) {
+        keys = entries.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        valueStart = new int[keys.length + 1];
+        for (int k = 0; k < keys.length; k++) {
+            valueStart[k + 1] = valueStart[k] + entries.get(keys[k]).size();
+        }
+        values = new Object[valueStart[keys.length]];
+        for (int k = 0; k < keys.length; k++) {
+            List<? extends T> list = entries.get(keys[k]);
+            for (int i = 0; i < list.size(); i++) {
+                values[valueStart[k] + i] = list.get(i);
+            }
+        }
+
+        TreeMap<String, List<Integer>> lists = new TreeMap<>();
+        int total = 0;
+        for (int k = 0; k < keys.length; k++) {
+            for (String token : keys[k].split(" ")) {
+                if (token.isEmpty()) {
+                    continue;
+                }
+                List<Integer> list = lists.computeIfAbsent(token, t -> new ArrayList<>());
+                if (list.isEmpty() || list.get(list.size() - 1) != k) {
+                    list.add(k);
+                    total++;
+                }
+            }
+        }
+        tokens = lists.keySet().toArray(new String[0]);
+        postingStart = new int[tokens.length + 1];
+        postings = new int[total];
+        int t = 0;
+        for (List<Integer> list : lists.values()) {
+            int at = postingStart[t];
+            for (int k : list) {
+                postings[at++] = k;
+            }
+            postingStart[++t] = at;
+        }
+    }
+
+    /**
+     * Returns the first value of each of the k most popular keys containing every token of
+     * query, best first.
+     * @param query Space-separated tokens; the last one only has to start a token of the
+     *              key unless query ends with a space.
+     * @return The values, or an empty list if no key matches or query has no tokens.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getMatches(String query, int k) {
+        String[] terms = query.trim().split(" +");
+        if (k <= 0 || terms[0].isEmpty()) {
+            return Collections.emptyList();
+        }
+        boolean lastIsPrefix = !query.endsWith(" ");
+        int complete = lastIsPrefix ? terms.length - 1 : terms.length;
+
+        // Complete tokens, shortest posting list first.
+        int[] lists = new int[complete];
+        for (int i = 0; i < complete; i++) {
+            int t = Arrays.binarySearch(tokens, terms[i]);
+            if (t < 0) {
+                return Collections.emptyList();
+            }
+            lists[i] = t;
+        }
+        sortByLength(lists);
+
+        int[] best = new int[Math.min(k, keys.length)];
+        int count = 0;
+        if (complete == 0) {
+            // A single partial token: every key in the postings of the tokens it starts.
+            String prefix = terms[0];
+            int to = lowerBound(prefix + Character.MAX_VALUE);
+            for (int t = lowerBound(prefix); t < to; t++) {
+                for (int i = postingStart[t]; i < postingStart[t + 1]; i++) {
+                    count = insert(best, count, postings[i]);
+                }
+            }
+        } else {
+            int[] candidates = Arrays.copyOfRange(postings, postingStart[lists[0]],
+                    postingStart[lists[0] + 1]);
+            int size = candidates.length;
+            for (int i = 1; i < complete && size > 0; i++) {
+                size = intersect(candidates, size, postings, postingStart[lists[i]],
+                        postingStart[lists[i] + 1]);
+            }
+            String prefix = lastIsPrefix ? terms[terms.length - 1] : null;
+            for (int i = 0; i < size; i++) {
+                if (prefix == null || startsToken(keys[candidates[i]], prefix)) {
+                    count = insert(best, count, candidates[i]);
+                }
+            }
+        }
+        List<T> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add((T) values[valueStart[best[i]]]);
+        }
+        return result;
+    }
+
+    /** Index of the first token not less than s. */
+    private int lowerBound(String s) {
+        int t = Arrays.binarySearch(tokens, s);
+        return t < 0 ? -t - 1 : t;
+    }
+
+    /** Sorts token indices by the length of their posting lists, shortest first. */
+    private void sortByLength(int[] lists) {
+        for (int i = 1; i < lists.length; i++) {
+            int t = lists[i];
+            int length = postingStart[t + 1] - postingStart[t];
+            int j = i;
+            while (j > 0 && postingStart[lists[j - 1] + 1] - postingStart[lists[j - 1]]
+                    > length) {
+                lists[j] = lists[j - 1];
+                j--;
+            }
+            lists[j] = t;
+        }
+    }
+
+    /**
+     * Keeps the entries of a[0, size) that are also in b[from, to), both ascending, by
+     * galloping through b: each lookup doubles its step from the last match until it
+     * passes the entry, then binary searches the last step. This costs
+     * O(size log(length of b / size)) rather than O(size + length of b).
+     * @return The number of entries kept, now at the front of a.
+     */
+    static int intersect(int[] a, int size, int[] b, int from, int to) {
+        int kept = 0;
+        int lo = from;
+        for (int i = 0; i < size && lo < to; i++) {
+            int x = a[i];
+            int step = 1;
+            int hi = lo;
+            while (hi < to && b[hi] < x) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            hi = Math.min(hi, to - 1);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (b[mid] < x) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            if (lo < to && b[lo] == x) {
+                a[kept++] = x;
+                lo++;
+            }
+        }
+        return kept;
+    }
+
+    /** Whether prefix starts s or starts a token of s after a space. */
+    private static boolean startsToken(String s, String prefix) {
+        int at = 0;
+        while (true) {
+            if (s.startsWith(prefix, at)) {
+                return true;
+            }
+            int space = s.indexOf(' ', at);
+            if (space < 0) {
+                return false;
+            }
+            at = space + 1;
+        }
+    }
+
+    /** Whether key a ranks above key b: it has more values, or as many and sorts first. */
+    private boolean ranksAbove(int a, int b) {
+        int countA = valueStart[a + 1] - valueStart[a];
+        int countB = valueStart[b + 1] - valueStart[b];
+        return countA > countB || countA == countB && a < b;
+    }
+
+    /**
+     * Inserts key into best[0, count), which is ordered best first, dropping the last key if
+     * best is full. A key already there would land right after itself and is skipped, as
+     * a key in the postings of several tokens of a prefix is offered more than once.
+     * @return The new count.
+     */
+    private int insert(int[] best, int count, int key) {
+        int at = count;
+        while (at > 0 && ranksAbove(key, best[at - 1])) {
+            at--;
+        }
+        if (at == best.length || at > 0 && best[at - 1] == key) {
+            return count;
+        }
+        int moved = Math.min(count, best.length - 1) - at;
+        System.arraycopy(best, at, best, at + 1, moved);
+        best[at] = key;
+        return Math.min(count + 1, best.length);
+    }
+
+    /** Number of distinct tokens. */
+    public int tokens() {
+        return tokens.length;
+    }
+}
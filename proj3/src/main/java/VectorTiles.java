@@ -0,0 +1,317 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the ways of a graph as vector tiles on the pyramid of a tile set, so clients can
+ * draw the streets themselves at any depth instead of fetching pre-rendered images.
+ *
+ * Each way is clipped to the tile plus a small buffer, simplified with Douglas-Peucker to
+ * half a pixel at the tile's depth, and its points rounded to a grid of EXTENT by EXTENT
+ * units over the tile. A tile is a sequence of unsigned LEB128 varints:
+ * <pre>
+ * version, extent,
+ * name count, then per name: UTF-8 byte length, bytes,
+ * feature count, then per feature:
+ *     name index + 1 (0 if unnamed), way id, point count,
+ *     then per point: zigzag dx, zigzag dy
+ * </pre>
+ * Point coordinates are deltas from the previous point of the tile, starting from (0, 0),
+ * with x growing east and y growing south. A way that leaves and re-enters the tile is
+ * written as one feature per piece.
+ *
+ * Ways are bucketed once by the cells of the pyramid at INDEX_DEPTH they overlap, so
+ * encoding a deep tile only looks at the ways of its ancestor cell.
+ */
+public class VectorTiles {
+    static final int VERSION = 1;
+    /** Grid units per tile side. */
+    public static final int EXTENT = 4096;
+    /** Grid units kept beyond each tile edge, so lines join up across tiles. */
+    static final int BUFFER = 64;
+    /** Largest distance, in pixels, a dropped point may be from the simplified line. */
+    static final double SIMPLIFY_TOLERANCE_PX = 0.5;
+    /** Depth of the cells ways are bucketed by. */
+    static final int INDEX_DEPTH = 6;
+
+    private final TileSet tileSet;
+    private final int indexDepth;
+    private final long[] ids;
+    private final String[] names;
+    private final double[][] lons;
+    private final double[][] lats;
+    private final double[] minLon, maxLon, minLat, maxLat;
+    /** The ways overlapping index cell c are cellWays[cellStart[c], cellStart[c + 1]). */
+    private final int[] cellStart;
+    private final int[] cellWays;
+
+    /**
+     * @param g The graph whose ways to draw.
+     * @param tileSet The tile set whose pyramid the tiles follow.
+     */
+    public VectorTiles(GraphDB g, TileSet tileSet) {
+        this.tileSet = tileSet;
+        this.indexDepth = Math.min(INDEX_DEPTH, tileSet.maxDepth());
+        List<Way> ways = new ArrayList<>();
+        for (Way way : g.ways()) {
+            if (way.getWay().size() >= 2) {
+                ways.add(way);
+            }
+        }
+        int n = ways.size();
+        ids = new long[n];
+        names = new String[n];
+        lons = new double[n][];
+        lats = new double[n][];
+        minLon = new double[n];
+        maxLon = new double[n];
+        minLat = new double[n];
+        maxLat = new double[n];
+        for (int w = 0; w < n; w++) {
+            Way way = ways.get(w);
+            List<Node> nodes = way.getWay();
+            ids[w] = way.getId();
+            names[w] = way.getName();
+            lons[w] = new double[nodes.size()];
+            lats[w] = new double[nodes.size()];
+            minLon[w] = minLat[w] = Double.POSITIVE_INFINITY;
+            maxLon[w] = maxLat[w] = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < nodes.size(); i++) {
+                double lon = nodes.get(i).getLon();
+                double lat = nodes.get(i).getLat();
+                lons[w][i] = lon;
+                lats[w][i] = lat;
+                minLon[w] = Math.min(minLon[w], lon);
+                maxLon[w] = Math.max(maxLon[w], lon);
+                minLat[w] = Math.min(minLat[w], lat);
+                maxLat[w] = Math.max(maxLat[w], lat);
+            }
+        }
+
+        // Count the ways of each cell, then fill them in.
+        int side = 1 << indexDepth;
+        int[][] ranges = new int[n][];
+        cellStart = new int[side * side + 1];
+        for (int w = 0; w < n; w++) {
+            ranges[w] = cellRange(w);
+            for (int y = ranges[w][1]; y <= ranges[w][3]; y++) {
+                for (int x = ranges[w][0]; x <= ranges[w][2]; x++) {
+                    cellStart[y * side + x + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < side * side; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellWays = new int[cellStart[side * side]];
+        int[] next = cellStart.clone();
+        for (int w = 0; w < n; w++) {
+            for (int y = ranges[w][1]; y <= ranges[w][3]; y++) {
+                for (int x = ranges[w][0]; x <= ranges[w][2]; x++) {
+                    cellWays[next[y * side + x]++] = w;
+                }
+            }
+        }
+    }
+
+    /** {first x, first y, last x, last y} of the index cells way w's buffered box overlaps. */
+    private int[] cellRange(int w) {
+        int side = 1 << indexDepth;
+        double cellWidth = (tileSet.lrlon() - tileSet.ullon()) / side;
+        double cellHeight = (tileSet.ullat() - tileSet.lrlat()) / side;
+        double marginX = cellWidth * BUFFER / EXTENT;
+        double marginY = cellHeight * BUFFER / EXTENT;
+        return new int[]{
+            cell((minLon[w] - marginX - tileSet.ullon()) / cellWidth, side),
+            cell((tileSet.ullat() - maxLat[w] - marginY) / cellHeight, side),
+            cell((maxLon[w] + marginX - tileSet.ullon()) / cellWidth, side),
+            cell((tileSet.ullat() - minLat[w] + marginY) / cellHeight, side)};
+    }
+
+    private static int cell(double position, int side) {
+        return (int) Math.max(0, Math.min(side - 1, Math.floor(position)));
+    }
+
+    public TileSet tileSet() {
+        return tileSet;
+    }
+
+    /** Number of ways the tiles are drawn from. */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Encodes tile (x, y) at depth in the format described above.
+     * @throws IllegalArgumentException If there is no such tile in the pyramid.
+     */
+    public byte[] encode(int depth, int x, int y) {
+        if (depth < 0 || depth > TileSet.MAX_DEPTH || x < 0 || y < 0
+                || x >= 1 << depth || y >= 1 << depth) {
+            throw new IllegalArgumentException("No tile d" + depth + "_x" + x + "_y" + y);
+        }
+        double tileWidth = Math.scalb(tileSet.lrlon() - tileSet.ullon(), -depth);
+        double tileHeight = Math.scalb(tileSet.ullat() - tileSet.lrlat(), -depth);
+        double west = tileSet.ullon() + x * tileWidth;
+        double north = tileSet.ullat() - y * tileHeight;
+        double scaleX = EXTENT / tileWidth;
+        double scaleY = EXTENT / tileHeight;
+        double marginX = BUFFER / scaleX;
+        double marginY = BUFFER / scaleY;
+        double tolerance = SIMPLIFY_TOLERANCE_PX * EXTENT / tileSet.tileSize();
+
+        int first = 0;
+        int end = ids.length;
+        int[] candidates = null;
+        if (depth >= indexDepth) {
+            int shift = depth - indexDepth;
+            int cell = (y >> shift) * (1 << indexDepth) + (x >> shift);
+            first = cellStart[cell];
+            end = cellStart[cell + 1];
+            candidates = cellWays;
+        }
+
+        Map<String, Integer> nameIndex = new LinkedHashMap<>();
+        ByteArrayOutputStream features = new ByteArrayOutputStream();
+        int featureCount = 0;
+        long cursorX = 0;
+        long cursorY = 0;
+        for (int i = first; i < end; i++) {
+            int w = candidates == null ? i : candidates[i];
+            if (maxLon[w] < west - marginX || minLon[w] > west + tileWidth + marginX
+                    || minLat[w] > north + marginY || maxLat[w] < north - tileHeight - marginY) {
+                continue;
+            }
+            double[] us = new double[lons[w].length];
+            double[] vs = new double[lons[w].length];
+            for (int p = 0; p < us.length; p++) {
+                us[p] = (lons[w][p] - west) * scaleX;
+                vs[p] = (north - lats[w][p]) * scaleY;
+            }
+            for (List<double[]> piece : clip(us, vs, -BUFFER, EXTENT + BUFFER)) {
+                long[] points = quantize(Geometry.simplify(piece, tolerance));
+                if (points.length < 4) {
+                    continue;
+                }
+                int name = 0;
+                if (names[w] != null) {
+                    name = nameIndex.computeIfAbsent(names[w], k -> nameIndex.size()) + 1;
+                }
+                writeVarint(features, name);
+                writeVarint(features, ids[w]);
+                writeVarint(features, points.length / 2);
+                for (int p = 0; p < points.length; p += 2) {
+                    writeVarint(features, zigzag(points[p] - cursorX));
+                    writeVarint(features, zigzag(points[p + 1] - cursorY));
+                    cursorX = points[p];
+                    cursorY = points[p + 1];
+                }
+                featureCount++;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(features.size() + 64);
+        writeVarint(out, VERSION);
+        writeVarint(out, EXTENT);
+        writeVarint(out, nameIndex.size());
+        for (String name : nameIndex.keySet()) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        writeVarint(out, featureCount);
+        out.write(features.toByteArray(), 0, features.size());
+        return out.toByteArray();
+    }
+
+    /**
+     * Clips the polyline through (us[i], vs[i]) to the square [lo, hi] by [lo, hi] with
+     * Liang-Barsky, one segment at a time.
+     * @return The pieces of the line inside the square, in order, as {u, v} points.
+     */
+    static List<List<double[]>> clip(double[] us, double[] vs, double lo, double hi) {
+        List<List<double[]>> pieces = new ArrayList<>();
+        List<double[]> piece = null;
+        double[] t = new double[2];
+        for (int i = 1; i < us.length; i++) {
+            double u = us[i - 1];
+            double v = vs[i - 1];
+            double du = us[i] - u;
+            double dv = vs[i] - v;
+            t[0] = 0;
+            t[1] = 1;
+            if (!clipEdge(-du, u - lo, t) || !clipEdge(du, hi - u, t)
+                    || !clipEdge(-dv, v - lo, t) || !clipEdge(dv, hi - v, t)) {
+                piece = null;
+                continue;
+            }
+            if (piece == null || t[0] > 0) {
+                piece = new ArrayList<>();
+                pieces.add(piece);
+                piece.add(new double[]{u + t[0] * du, v + t[0] * dv});
+            }
+            if (t[1] < 1) {
+                piece.add(new double[]{u + t[1] * du, v + t[1] * dv});
+                piece = null;
+            } else {
+                piece.add(new double[]{us[i], vs[i]});
+            }
+        }
+        return pieces;
+    }
+
+    /**
+     * Narrows [t[0], t[1]] to the parameters where p * t <= q.
+     * @return Whether any remain.
+     */
+    private static boolean clipEdge(double p, double q, double[] t) {
+        if (p == 0) {
+            return q >= 0;
+        }
+        double r = q / p;
+        if (p < 0) {
+            if (r > t[1]) {
+                return false;
+            }
+            t[0] = Math.max(t[0], r);
+        } else {
+            if (r < t[0]) {
+                return false;
+            }
+            t[1] = Math.min(t[1], r);
+        }
+        return true;
+    }
+
+    /** Rounds points to the grid as {x0, y0, x1, y1, ...}, dropping repeated points. */
+    private static long[] quantize(List<double[]> line) {
+        long[] points = new long[line.size() * 2];
+        int length = 0;
+        for (double[] point : line) {
+            long x = Math.round(point[0]);
+            long y = Math.round(point[1]);
+            if (length == 0 || x != points[length - 2] || y != points[length - 1]) {
+                points[length++] = x;
+                points[length++] = y;
+            }
+        }
+        long[] result = new long[length];
+        System.arraycopy(points, 0, result, 0, length);
+        return result;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -27,6 +27,10 @@ public class Way {
         this.way = new ArrayList<>(); //is a shallow copy enough?
     }
 
+    public long getId() {
+        return id;
+    }
+
     public ArrayList<Node> getWay() {
         return way;
     }
@@ -30,6 +30,10 @@ $(function() {
     var getInProgress = false;
     var route_params = {};
     var map;
+    var map_url; // object URL of the current raster, revoked when replaced
+    var route_layer; // canvas over the raster that the route is drawn on
+    var route_token; // names this client's route on the server
+    var route = []; // [lon, lat] pairs of the current route
     var dest;
     var tx = 0, ty = 0;
     var rtx, rty;
@@ -54,10 +58,12 @@ $(function() {
     } else {
         host = 'http://localhost:4567';
     }
-    const raster_server = host + '/raster';
+    const raster_png_server = host + '/raster_png';
     const route_server = host + '/route';
     const clear_route = host + '/clear_route';
     const search = host + '/search';
+    /* Most autocomplete suggestions asked for per keystroke, most popular first */
+    const search_limit = 10;
 
     /* ════════════════════════════ ೋღ HELPERS ღೋ ══════════════════════════ */
     /* Compute lat and lon by window size */
@@ -101,60 +107,94 @@ $(function() {
         }
     }
 
+    /* Draws the route over the current raster. The raster itself never has the route in it,
+       so the server can cache it for every route. */
+    function drawRoute() {
+        if (!img_w) {
+            return; // no raster yet; updateImg draws the route once there is one
+        }
+        route_layer.width = img_w;
+        route_layer.height = img_h;
+        const ctx = route_layer.getContext('2d');
+        ctx.clearRect(0, 0, img_w, img_h);
+        if (route.length < 2) {
+            return;
+        }
+        ctx.strokeStyle = 'rgba(108, 181, 230, 0.78)';
+        ctx.lineWidth = 5;
+        ctx.lineCap = 'round';
+        ctx.lineJoin = 'round';
+        ctx.beginPath();
+        for (var i = 0; i < route.length; i++) {
+            const x = (route[i][0] - ullon_bound) / wdpp;
+            const y = (ullat_bound - route[i][1]) / hdpp;
+            if (i === 0) {
+                ctx.moveTo(x, y);
+            } else {
+                ctx.lineTo(x, y);
+            }
+        }
+        ctx.stroke();
+    }
+
     function updateImg(successCallback) {
-        /* Synchronous ajax call for image update.
-           Could be async for better experience but then user spam locks up the server.
-           Uses a small setTimeout since synchronous AJAX freezes UI updates, including
-           updates which are called before ajax() is called #sigh #why #justjavascriptthings */
+        /* Fetches the raster as a PNG body, with its bounds and size in X-Raster-* headers,
+           instead of Base64 inside JSON. */
         $loadingStatus.show();
         getInProgress = true;
-        $.get({
-            async: true,
-            url: raster_server,
-            data: params,
-            success: function(data) {
-                console.log(data);
-                if (data.query_success) {
-                    $loadingStatus.hide();
-                    map.src = 'data:image/png;base64,' + data.b64_encoded_image_data;
-                    console.log('Updating map with image length: ' +
-                                data.b64_encoded_image_data.length);
-                    ullon_bound = data.raster_ul_lon;
-                    ullat_bound = data.raster_ul_lat;
-                    lrlon_bound = data.raster_lr_lon;
-                    lrlat_bound = data.raster_lr_lat;
-                    current_level = data.depth;
-                    img_w = data.raster_width;
-                    img_h = data.raster_height;
-                    wdpp = (lrlon_bound - ullon_bound) / img_w;
-                    hdpp = (ullat_bound - lrlat_bound) / img_h;
-                    // Compute initial transform
-                    tx = - (params.ullon - ullon_bound) * (1 / wdpp);
-                    ty = (params.ullat - ullat_bound) * (1 / hdpp);
-                    rtx = (route_params.end_lon - params.ullon) * (1 / wdpp) - dest.width / 2 - tx;
-                    rty = - (route_params.end_lat - params.ullat) * (1 / hdpp) - dest.height - ty;
-                    updateMarkers();
-                    getInProgress = false;
-                    if (successCallback) {
-                        successCallback();
-                    }
-                } else {
-                    $loadingstatus.hide();
+        fetch(raster_png_server + '?' + $.param(params))
+            .then(function(response) {
+                if (!response.ok) {
+                    throw new Error('Raster request failed: ' + response.status);
                 }
-            },
-            error: function() {
+                return response.blob().then(function(blob) {
+                    return {headers: response.headers, blob: blob};
+                });
+            })
+            .then(function(result) {
+                const headers = result.headers;
+                $loadingStatus.hide();
+                if (map_url) {
+                    URL.revokeObjectURL(map_url);
+                }
+                map_url = URL.createObjectURL(result.blob);
+                map.src = map_url;
+                console.log('Updating map with image length: ' + result.blob.size);
+                ullon_bound = parseFloat(headers.get('X-Raster-Ul-Lon'));
+                ullat_bound = parseFloat(headers.get('X-Raster-Ul-Lat'));
+                lrlon_bound = parseFloat(headers.get('X-Raster-Lr-Lon'));
+                lrlat_bound = parseFloat(headers.get('X-Raster-Lr-Lat'));
+                current_level = parseInt(headers.get('X-Raster-Depth'), 10);
+                img_w = parseInt(headers.get('X-Raster-Width'), 10);
+                img_h = parseInt(headers.get('X-Raster-Height'), 10);
+                wdpp = (lrlon_bound - ullon_bound) / img_w;
+                hdpp = (ullat_bound - lrlat_bound) / img_h;
+                // Compute initial transform
+                tx = - (params.ullon - ullon_bound) * (1 / wdpp);
+                ty = (params.ullat - ullat_bound) * (1 / hdpp);
+                rtx = (route_params.end_lon - params.ullon) * (1 / wdpp) - dest.width / 2 - tx;
+                rty = - (route_params.end_lat - params.ullat) * (1 / hdpp) - dest.height - ty;
+                drawRoute();
+                updateMarkers();
+                getInProgress = false;
+                if (successCallback) {
+                    successCallback();
+                }
+            })
+            .catch(function(error) {
+                console.log(error);
+                $loadingStatus.hide();
                 getInProgress = false;
                 $errorStatus.show();
                 setTimeout(function() {
                     $errorStatus.fadeOut();
                 }, 4000);
-            },
-            dataType: 'json'
-        });
+            });
     }
 
     function updateT() {
         map.style.transform = 'translateX(' + tx + 'px) translateY(' + ty + 'px)';
+        route_layer.style.transform = map.style.transform;
         dest.style.transform = 'translateX(' + (tx+rtx) + 'px) translateY(' + (ty+rty) + 'px)';
         for (var i = 0; i < markers.length; i++) {
             const marker = markers[i];
@@ -167,13 +207,19 @@ $(function() {
     }
 
     function updateRoute() {
+        // Reuse this client's route token, if any, so the server replaces its old route
+        if (route_token) {
+            route_params.route_token = route_token;
+        }
         $.get({
             async: true,
             url: route_server,
             data: route_params,
             success: function(data) {
                 data = JSON.parse(data);
-                updateImg();
+                route_token = data.route_token;
+                route = data.route;
+                drawRoute();
                 if (data.directions_success) {
                     $directionsText.html(data.directions);
                 } else {
@@ -314,6 +360,7 @@ $(function() {
 
     map = document.getElementById('map');
     dest = document.getElementById('dest');
+    route_layer = document.getElementById('route-layer');
     dest.style.visibility = 'hidden';
     params.lrlon = real_lrlon();
     params.lrlat = real_lrlat();
@@ -323,9 +370,34 @@ $(function() {
     /* Hide scroll bar */
     $('body').css('overflow', 'hidden');
 
+    /* Suggest the matches of the first search mode that finds any: names starting with the
+     * term, then names with words starting with it, then names allowing for typos */
+    function searchModes(term, modes, response) {
+        if (modes.length === 0) {
+            response([]);
+            return;
+        }
+        $.get({
+            async: true,
+            url: search,
+            dataType: 'json',
+            data: { term: term, limit: search_limit, mode: modes[0] },
+            success: function (data) {
+                if (data.length > 0) {
+                    response(data);
+                } else {
+                    searchModes(term, modes.slice(1), response);
+                }
+            },
+            error: function () { response([]); }
+        });
+    }
+
     /* Make search bar do autocomplete things */
     $('#tags').autocomplete({
-          source: search,
+          source: function (request, response) {
+              searchModes(request.term, ['prefix', 'token', 'fuzzy'], response);
+          },
           minLength: 1,
           select: function (event, ui) {
               $.get({
@@ -407,10 +479,13 @@ $(function() {
         $.get({
             async: true,
             url: clear_route,
+            data: {route_token: route_token},
             success: function() {
+                route_token = undefined;
+                route = [];
+                drawRoute();
                 dest.style.visibility = 'hidden';
                 $directionsText.html('No routing directions to display.');
-                update();
             },
         });
     });
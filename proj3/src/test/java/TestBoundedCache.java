@@ -0,0 +1,69 @@
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks LRU eviction by entry count and by weight, and time-to-live expiry of BoundedCache.
+ */
+public class TestBoundedCache {
+    private long now = 0;
+
+    private BoundedCache<String, Integer> newCache(int maxEntries) {
+        return new BoundedCache<>(maxEntries, value -> 1, 10, TimeUnit.SECONDS, () -> now);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        BoundedCache<String, Integer> cache = newCache(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.put("c", 3);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(Integer.valueOf(3), cache.get("c"));
+    }
+
+    @Test
+    public void testExpiresAfterTimeToLiveWithoutAccess() {
+        BoundedCache<String, Integer> cache = newCache(10);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        now += TimeUnit.SECONDS.toNanos(6);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        now += TimeUnit.SECONDS.toNanos(6);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertNull(cache.get("b"));
+        now += TimeUnit.SECONDS.toNanos(10);
+        cache.put("c", 3);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testEvictsByWeight() {
+        BoundedCache<String, String> cache =
+                new BoundedCache<>(10, String::length, 10, TimeUnit.SECONDS, () -> now);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.put("c", "cccc");
+        assertNull(cache.get("a"));
+        assertEquals(8, cache.weight());
+        cache.put("d", "dddddddddddd");
+        assertNull(cache.get("d"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void testRemove() {
+        BoundedCache<String, Integer> cache = newCache(10);
+        cache.put("a", 1);
+        assertEquals(Integer.valueOf(1), cache.remove("a"));
+        assertNull(cache.get("a"));
+        assertNull(cache.remove("a"));
+    }
+}
@@ -0,0 +1,46 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the single-pass GraphDB.cleanString against the regex it replaced.
+ */
+public class TestCleanString {
+    @Test
+    public void testMatchesRegex() {
+        String[] names = {"Peet's Coffee & Tea", "Top Dog #5", "", "   ", "ALL CAPS",
+            "Caf\u00e9 Rouge", "Stra\u00dfe 12", "caf\u00e9", "\ud83c\udf55 Pizza!"};
+        for (String name : names) {
+            assertEquals(name, GraphDB.cleanStringByRegex(name), GraphDB.cleanString(name));
+        }
+        Random random = new Random(25);
+        String alphabet = "aZz Az09'-#\u00e9\u00c5\u4e2d\t";
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder s = new StringBuilder();
+            int length = random.nextInt(i < 1000 ? 20 : 400);
+            for (int j = 0; j < length; j++) {
+                s.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String name = s.toString();
+            assertEquals(name, GraphDB.cleanStringByRegex(name), GraphDB.cleanString(name));
+        }
+    }
+
+    @Test
+    public void testCleanStringIsReturnedAsIs() {
+        String clean = "top dog";
+        assertSame(clean, GraphDB.cleanString(clean));
+    }
+
+    @Test
+    public void testFoldAccents() {
+        assertEquals("cafe rouge", GraphDB.cleanString("Caf\u00e9 Rouge", true));
+        assertEquals("angstrom", GraphDB.cleanString("\u00c5ngstr\u00f6m", true));
+        assertEquals("zurich", GraphDB.cleanString("Z\u00fcrich!", true));
+        assertEquals(" pizza", GraphDB.cleanString("\ud83c\udf55 Pizza", true));
+        assertEquals("caf", GraphDB.cleanString("Caf\u00e9", false));
+    }
+}
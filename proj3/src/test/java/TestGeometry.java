@@ -0,0 +1,101 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the convex hull and Douglas-Peucker helpers used for isochrone boundaries, and
+ * that the boundaries contain what they bound.
+ */
+public class TestGeometry {
+    @Test
+    public void testConvexHullOfSquareWithInteriorPoints() {
+        List<double[]> points = new ArrayList<>(Arrays.asList(
+                new double[]{0, 0}, new double[]{1, 0}, new double[]{1, 1}, new double[]{0, 1},
+                new double[]{0.5, 0.5}, new double[]{0.2, 0.7}, new double[]{0.5, 0}));
+        List<double[]> hull = Geometry.convexHull(points);
+        assertEquals(4, hull.size());
+        assertArrayEquals(new double[]{0, 0}, hull.get(0), 0);
+        assertArrayEquals(new double[]{1, 0}, hull.get(1), 0);
+        assertArrayEquals(new double[]{1, 1}, hull.get(2), 0);
+        assertArrayEquals(new double[]{0, 1}, hull.get(3), 0);
+    }
+
+    @Test
+    public void testSimplifyDropsOnlyPointsWithinTolerance() {
+        List<double[]> line = Arrays.asList(new double[]{0, 0}, new double[]{1, 0.01},
+                new double[]{2, 0}, new double[]{3, 1}, new double[]{4, 0});
+        List<double[]> simplified = Geometry.simplify(line, 0.1);
+        assertEquals(4, simplified.size());
+        assertArrayEquals(new double[]{3, 1}, simplified.get(2), 0);
+    }
+
+    @Test
+    public void testSimplifiedRingStaysWithinTolerance() {
+        Random random = new Random(61);
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            double angle = random.nextDouble() * 2 * Math.PI;
+            points.add(new double[]{Math.cos(angle), Math.sin(angle)});
+        }
+        List<double[]> hull = Geometry.convexHull(points);
+        double tolerance = 0.01;
+        List<double[]> ring = Geometry.simplifyRing(hull, tolerance);
+        assertTrue(ring.size() < hull.size());
+        for (double[] p : hull) {
+            double nearest = Double.MAX_VALUE;
+            for (int i = 0; i < ring.size(); i++) {
+                nearest = Math.min(nearest, Geometry.segmentDistance(p, ring.get(i),
+                        ring.get((i + 1) % ring.size())));
+            }
+            assertTrue(nearest <= tolerance);
+        }
+    }
+
+    @Test
+    public void testIsochroneBoundaryContainsEveryReachedVertex() {
+        // A jittered street grid, so the reachable area has a ragged hull to simplify.
+        Random random = new Random(61);
+        int side = 40;
+        GraphDB g = new GraphDB();
+        List<Node> nodes = new ArrayList<>();
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                nodes.add(g.addNode(y * side + x, -122.3 + 0.001 * (x + random.nextDouble() / 2),
+                        37.85 + 0.001 * (y + random.nextDouble() / 2)));
+            }
+        }
+        for (int i = 0; i < side; i++) {
+            ArrayList<Long> row = new ArrayList<>();
+            ArrayList<Long> column = new ArrayList<>();
+            for (int j = 0; j < side; j++) {
+                row.add((long) (i * side + j));
+                column.add((long) (j * side + i));
+            }
+            g.addWay(2 * i, row);
+            g.addWay(2 * i + 1, column);
+        }
+        g.restore(new CompactGraph(nodes));
+
+        Router.Isochrone isochrone = Router.isochrone(g, -122.28, 37.87, 0.8);
+        List<double[]> boundary = isochrone.getBoundary();
+        assertTrue(isochrone.getVertices().length > 100);
+        assertTrue(boundary.size() >= 3);
+        for (long v : isochrone.getVertices()) {
+            double[] p = {g.lon(v), g.lat(v)};
+            for (int i = 0; i < boundary.size(); i++) {
+                double[] a = boundary.get(i);
+                double[] b = boundary.get((i + 1) % boundary.size());
+                // Inside or on a counter-clockwise polygon means never right of an edge.
+                double cross = (b[0] - a[0]) * (p[1] - a[1]) - (b[1] - a[1]) * (p[0] - a[0]);
+                assertTrue(cross >= -1e-12);
+            }
+        }
+    }
+}
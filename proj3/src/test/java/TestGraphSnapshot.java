@@ -0,0 +1,73 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Round-trips the Berkeley graph through GraphSnapshot and checks that the restored graph
+ * answers the same queries as the parsed one.
+ */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static GraphDB graph;
+    private static GraphDB restored;
+    private static File snapshot;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        snapshot = File.createTempFile("berkeley", ".snapshot");
+        snapshot.deleteOnExit();
+        GraphSnapshot.write(graph, new File(OSM_DB_PATH), snapshot);
+        restored = GraphSnapshot.read(snapshot, new File(OSM_DB_PATH));
+        initialized = true;
+    }
+
+    @Test
+    public void testVerticesAndAdjacency() {
+        assertNotNull(restored);
+        assertEquals(graph.getNodeSize(), restored.getNodeSize());
+        for (long v : graph.vertices()) {
+            assertEquals(graph.lon(v), restored.lon(v), 0.0);
+            assertEquals(graph.lat(v), restored.lat(v), 0.0);
+            HashSet<Long> expected = new HashSet<>();
+            HashSet<Long> actual = new HashSet<>();
+            graph.adjacent(v).forEach(expected::add);
+            restored.adjacent(v).forEach(actual::add);
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testLocations() {
+        assertNotNull(restored);
+        assertEquals(graph.getLocationsByPrefix("c"), restored.getLocationsByPrefix("c"));
+        assertEquals(graph.getLocationsByPrefix("top"), restored.getLocationsByPrefix("top"));
+    }
+
+    @Test
+    public void testContractionHierarchyRoundTrip() throws Exception {
+        File ch = File.createTempFile("berkeley", ".ch");
+        ch.deleteOnExit();
+        graph.contractionHierarchy().write(ch);
+        assertNotNull(ContractionHierarchy.read(ch, restored.compact()));
+        assertNull(ContractionHierarchy.read(snapshot, restored.compact()));
+    }
+
+    @Test
+    public void testCorruptSnapshotIsRejected() throws Exception {
+        File corrupt = File.createTempFile("corrupt", ".snapshot");
+        corrupt.deleteOnExit();
+        java.nio.file.Files.write(corrupt.toPath(), new byte[GraphSnapshot.HEADER_BYTES]);
+        assertNull(GraphSnapshot.read(corrupt, new File(OSM_DB_PATH)));
+    }
+}
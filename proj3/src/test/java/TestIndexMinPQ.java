@@ -0,0 +1,75 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestIndexMinPQ {
+
+    @Test
+    public void testDelMinOrder() {
+        IndexMinPQ pq = new IndexMinPQ(5);
+        pq.insertOrDecrease(3, 3.0);
+        pq.insertOrDecrease(0, 5.0);
+        pq.insertOrDecrease(4, 1.0);
+        pq.insertOrDecrease(1, 4.0);
+        assertEquals(4, pq.size());
+        assertEquals(4, pq.delMin());
+        assertEquals(3, pq.delMin());
+        assertEquals(1, pq.delMin());
+        assertEquals(0, pq.delMin());
+        assertTrue(pq.isEmpty());
+    }
+
+    @Test
+    public void testDecreaseKey() {
+        IndexMinPQ pq = new IndexMinPQ(4);
+        pq.insertOrDecrease(0, 10.0);
+        pq.insertOrDecrease(1, 20.0);
+        pq.insertOrDecrease(1, 5.0);
+        pq.insertOrDecrease(0, 30.0); // not a decrease, ignored
+        assertEquals(2, pq.size());
+        assertEquals(1, pq.minIndex());
+        assertEquals(5.0, pq.minKey(), 0.0);
+        assertEquals(1, pq.delMin());
+        assertEquals(10.0, pq.minKey(), 0.0);
+    }
+
+    @Test
+    public void testClearAndReuse() {
+        IndexMinPQ pq = new IndexMinPQ(3);
+        pq.insertOrDecrease(2, 1.0);
+        pq.insertOrDecrease(1, 2.0);
+        pq.clear();
+        assertTrue(pq.isEmpty());
+        assertFalse(pq.contains(2));
+        pq.insertOrDecrease(1, 7.0);
+        assertEquals(1, pq.delMin());
+    }
+
+    @Test
+    public void testRandomAgainstSort() {
+        Random random = new Random(61);
+        int n = 1000;
+        IndexMinPQ pq = new IndexMinPQ(n);
+        double[] best = new double[n];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        for (int k = 0; k < 5 * n; k++) {
+            int i = random.nextInt(n);
+            double key = random.nextDouble();
+            pq.insertOrDecrease(i, key);
+            best[i] = Math.min(best[i], key);
+        }
+        double previous = -1;
+        while (!pq.isEmpty()) {
+            double key = pq.minKey();
+            int i = pq.delMin();
+            assertEquals(best[i], key, 0.0);
+            assertTrue(key >= previous);
+            previous = key;
+        }
+    }
+}
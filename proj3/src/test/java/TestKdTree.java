@@ -0,0 +1,45 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the k-d tree behind GraphDB.closest agrees with a linear scan of the graph.
+ */
+public class TestKdTree {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int NUM_QUERIES = 500;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testClosestMatchesScan() {
+        Random random = new Random(61);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            double lon = MapServer.ROOT_ULLON
+                    + random.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+            double lat = MapServer.ROOT_LRLAT
+                    + random.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+            assertEquals(graph.closestByScan(lon, lat), graph.closest(lon, lat));
+        }
+    }
+
+    @Test
+    public void testClosestToVertexIsItself() {
+        for (long v : graph.vertices()) {
+            long closest = graph.closest(graph.lon(v), graph.lat(v));
+            assertEquals(0.0, graph.distance(v, closest), 1e-9);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Adler32;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Encodes images in several stripes and checks that ImageIO decodes the same pixels back.
+ */
+public class TestPngEncoder {
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(4);
+
+    @AfterClass
+    public static void shutDown() {
+        POOL.shutdown();
+    }
+
+    private static void assertRoundTrip(BufferedImage image, int stripes) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new PngEncoder(POOL, stripes, 6).encode(image, os);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(os.toByteArray()));
+        assertEquals(image.getWidth(), decoded.getWidth());
+        assertEquals(image.getHeight(), decoded.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(image.getRGB(x, y), decoded.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        BufferedImage image = new BufferedImage(300, 257, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(61);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                // Smooth gradients with some noise, so every filter gets picked somewhere.
+                int noise = random.nextInt(4) == 0 ? random.nextInt(256) : 0;
+                image.setRGB(x, y, ((x + noise) & 0xff) << 16 | (y & 0xff) << 8 | (x * y) & 0xff);
+            }
+        }
+        assertRoundTrip(image, 1);
+        assertRoundTrip(image, 4);
+    }
+
+    @Test
+    public void testTinyImage() throws Exception {
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0x123456);
+        assertRoundTrip(image, 4);
+    }
+
+    @Test
+    public void testCombineAdler() {
+        byte[] first = "the quick brown fox ".getBytes();
+        byte[] second = new byte[100000];
+        new Random(7).nextBytes(second);
+        Adler32 whole = new Adler32();
+        whole.update(first);
+        whole.update(second);
+        Adler32 a = new Adler32();
+        a.update(first);
+        Adler32 b = new Adler32();
+        b.update(second);
+        assertEquals(whole.getValue(),
+                PngEncoder.combineAdler(a.getValue(), b.getValue(), second.length));
+    }
+}
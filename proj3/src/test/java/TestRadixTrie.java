@@ -0,0 +1,203 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks RadixTrie prefix matches against filtering every key.
+ */
+public class TestRadixTrie {
+    @Test
+    public void testMatchesInKeyOrder() {
+        Map<String, List<Integer>> entries = new HashMap<>();
+        entries.put("top dog", Arrays.asList(1, 2));
+        entries.put("top", Collections.singletonList(3));
+        entries.put("tops", Collections.singletonList(4));
+        entries.put("cafe", Collections.singletonList(5));
+        RadixTrie<Integer> trie = new RadixTrie<>(entries);
+        assertEquals(4, trie.size());
+        assertEquals(Arrays.asList(3, 1, 2, 4), trie.getMatches("to"));
+        assertEquals(Arrays.asList(3, 1, 2, 4), trie.getMatches("top"));
+        assertEquals(Arrays.asList(1, 2), trie.getMatches("top "));
+        assertEquals(Arrays.asList(5, 3, 1, 2, 4), trie.getMatches(""));
+        assertEquals(Collections.emptyList(), trie.getMatches("topz"));
+        assertEquals(Collections.emptyList(), trie.getMatches("x"));
+        assertEquals(Collections.emptyList(), trie.getMatches("top dogs"));
+    }
+
+    @Test
+    public void testFirstMatchesOncePerKey() {
+        Map<String, List<Integer>> entries = new HashMap<>();
+        entries.put("top dog", Arrays.asList(1, 2));
+        entries.put("top", Collections.singletonList(3));
+        entries.put("cafe", Collections.singletonList(5));
+        RadixTrie<Integer> trie = new RadixTrie<>(entries);
+        assertEquals(Arrays.asList(3, 1), trie.getFirstMatches("to"));
+        assertEquals(Arrays.asList(5, 3, 1), trie.getFirstMatches(""));
+        assertEquals(Collections.emptyList(), trie.getFirstMatches("x"));
+    }
+
+    @Test
+    public void testPrefixSearchListsSharedNameOnce() {
+        GraphDB g = new GraphDB();
+        Node first = new Node(1, -122.26, 37.87);
+        first.setName("Starbucks");
+        Node second = new Node(2, -122.25, 37.86);
+        second.setName("Starbucks");
+        Node other = new Node(3, -122.24, 37.85);
+        other.setName("Star Deli");
+        g.addLocation(first);
+        g.addLocation(second);
+        g.addLocation(other);
+        g.restore(new CompactGraph(Collections.<Node>emptyList()));
+        assertEquals(Arrays.asList("Star Deli", "Starbucks"), g.getLocationsByPrefix("star"));
+        assertEquals(Collections.singletonList("Starbucks"), g.getLocationsByPrefix("starb"));
+        assertEquals(2, g.getLocations("starbucks").size());
+    }
+
+    @Test
+    public void testTopMatchesByPopularity() {
+        Map<String, List<Integer>> entries = new HashMap<>();
+        entries.put("peets", Arrays.asList(1, 2, 3));
+        entries.put("pizza", Arrays.asList(4, 5));
+        entries.put("park", Collections.singletonList(6));
+        entries.put("pub", Arrays.asList(7, 8));
+        entries.put("cafe", Arrays.asList(9, 10, 11, 12));
+        for (int maxTop = 0; maxTop <= 4; maxTop++) {
+            RadixTrie<Integer> trie = new RadixTrie<>(entries, maxTop);
+            assertEquals(Arrays.asList(1, 4, 7), trie.getTopMatches("p", 3));
+            assertEquals(Arrays.asList(9, 1, 4, 7, 6), trie.getTopMatches("", 10));
+            assertEquals(Arrays.asList(9), trie.getTopMatches("", 1));
+            assertEquals(Arrays.asList(4), trie.getTopMatches("pi", 2));
+            assertEquals(Collections.emptyList(), trie.getTopMatches("q", 2));
+            assertEquals(Collections.emptyList(), trie.getTopMatches("p", 0));
+        }
+    }
+
+    @Test
+    public void testFuzzyMatches() {
+        Map<String, List<Integer>> entries = new HashMap<>();
+        entries.put("sushi house", Arrays.asList(1, 2));
+        entries.put("sushi bar", Collections.singletonList(3));
+        entries.put("subway", Arrays.asList(4, 5, 6));
+        entries.put("cafe strada", Collections.singletonList(7));
+        RadixTrie<Integer> trie = new RadixTrie<>(entries, 2);
+        long later = Long.MAX_VALUE;
+        assertEquals(Arrays.asList(1), trie.getFuzzyMatches("sushi hosue", 2, 5, later));
+        assertEquals(Arrays.asList(1, 3), trie.getFuzzyMatches("sishi", 1, 5, later));
+        // Exact prefixes come before the more popular subway, one typo away.
+        assertEquals(Arrays.asList(1, 3, 4), trie.getFuzzyMatches("sus", 1, 5, later));
+        assertEquals(Arrays.asList(4, 1), trie.getFuzzyMatches("sub", 1, 2, later));
+        assertEquals(Arrays.asList(7), trie.getFuzzyMatches("acfe", 1, 5, later));
+        assertEquals(Collections.emptyList(), trie.getFuzzyMatches("pizza", 2, 5, later));
+        assertEquals(Collections.emptyList(),
+                trie.getFuzzyMatches("sushi", 0, 5, System.nanoTime() - 1));
+    }
+
+    /** Optimal string alignment distance from query to the closest prefix of key. */
+    private static int prefixDistance(String query, String key) {
+        int[][] d = new int[key.length() + 1][query.length() + 1];
+        int closest = query.length();
+        for (int i = 0; i <= key.length(); i++) {
+            for (int j = 0; j <= query.length(); j++) {
+                if (i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                    continue;
+                }
+                d[i][j] = Math.min(Math.min(d[i - 1][j], d[i][j - 1]) + 1,
+                        d[i - 1][j - 1] + (key.charAt(i - 1) == query.charAt(j - 1) ? 0 : 1));
+                if (i > 1 && j > 1 && key.charAt(i - 1) == query.charAt(j - 2)
+                        && key.charAt(i - 2) == query.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+            closest = Math.min(closest, d[i][query.length()]);
+        }
+        return closest;
+    }
+
+    @Test
+    public void testEmptyTrie() {
+        RadixTrie<Integer> trie = new RadixTrie<>(new HashMap<String, List<Integer>>());
+        assertEquals(0, trie.size());
+        assertEquals(Collections.emptyList(), trie.getMatches(""));
+        assertEquals(Collections.emptyList(), trie.getMatches("a"));
+    }
+
+    @Test
+    public void testRandomKeysMatchScan() {
+        Random random = new Random(21);
+        TreeMap<String, List<Integer>> entries = new TreeMap<>();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder key = new StringBuilder();
+            int length = random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                key.append("abc ".charAt(random.nextInt(4)));
+            }
+            entries.computeIfAbsent(key.toString(), k -> new ArrayList<>()).add(i);
+        }
+        RadixTrie<Integer> trie = new RadixTrie<>(entries);
+        assertEquals(entries.size(), trie.size());
+        assertTrue(trie.nodes() < 2 * entries.size());
+        RadixTrie<Integer> ranked = new RadixTrie<>(entries, 5);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder prefix = new StringBuilder();
+            int length = random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                prefix.append("abcd ".charAt(random.nextInt(5)));
+            }
+            List<Integer> expected = new ArrayList<>();
+            for (Map.Entry<String, List<Integer>> entry : entries.entrySet()) {
+                if (entry.getKey().startsWith(prefix.toString())) {
+                    expected.addAll(entry.getValue());
+                }
+            }
+            assertEquals(prefix.toString(), expected, trie.getMatches(prefix));
+
+            // Popularity is the number of values, ties to the first key.
+            List<String> keys = new ArrayList<>();
+            for (String key : entries.keySet()) {
+                if (key.startsWith(prefix.toString())) {
+                    keys.add(key);
+                }
+            }
+            keys.sort((a, b) -> entries.get(b).size() - entries.get(a).size());
+            int k = 1 + random.nextInt(8);
+            List<Integer> top = new ArrayList<>();
+            for (String key : keys.subList(0, Math.min(k, keys.size()))) {
+                top.add(entries.get(key).get(0));
+            }
+            assertEquals(prefix.toString(), top, ranked.getTopMatches(prefix, k));
+
+            // Fuzzy matches are ranked by distance first.
+            int maxDistance = random.nextInt(3);
+            String query = prefix.toString();
+            Map<String, Integer> distances = new HashMap<>();
+            List<String> close = new ArrayList<>();
+            for (String key : entries.keySet()) {
+                distances.put(key, prefixDistance(query, key));
+                if (distances.get(key) <= maxDistance) {
+                    close.add(key);
+                }
+            }
+            close.sort((a, b) -> !distances.get(a).equals(distances.get(b))
+                    ? distances.get(a) - distances.get(b)
+                    : entries.get(b).size() - entries.get(a).size());
+            List<Integer> fuzzy = new ArrayList<>();
+            for (String key : close.subList(0, Math.min(k, close.size()))) {
+                fuzzy.add(entries.get(key).get(0));
+            }
+            assertEquals(query + " within " + maxDistance, fuzzy,
+                    ranked.getFuzzyMatches(query, maxDistance, k, Long.MAX_VALUE));
+        }
+    }
+}
@@ -44,6 +44,47 @@ public class TestRouter {
         }
     }
 
+    @Test
+    public void testShortestPathEveryAlgorithm() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+
+        for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+            for (int i = 0; i < NUM_TESTS; i++) {
+                Map<String, Double> params = testParams.get(i);
+                List<Long> actual = Router.shortestPath(graph,
+                        params.get("start_lon"), params.get("start_lat"),
+                        params.get("end_lon"), params.get("end_lat"), algorithm);
+                assertEquals(algorithm + " did not match the expected results for test " + i,
+                        expectedResults.get(i), actual);
+            }
+        }
+    }
+
+    @Test
+    public void testDistanceMatrix() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+        List<double[]> sources = new ArrayList<>();
+        List<double[]> targets = new ArrayList<>();
+        for (Map<String, Double> params : testParams) {
+            sources.add(new double[]{params.get("start_lon"), params.get("start_lat")});
+            targets.add(new double[]{params.get("end_lon"), params.get("end_lat")});
+        }
+
+        double[][] distances = Router.distanceMatrix(graph, sources, targets);
+        assertEquals(NUM_TESTS, distances.length);
+        for (int i = 0; i < NUM_TESTS; i++) {
+            assertEquals(NUM_TESTS, distances[i].length);
+            List<Long> path = expectedResults.get(i);
+            double expected = 0;
+            for (int k = 0; k + 1 < path.size(); k++) {
+                expected += graph.distance(path.get(k), path.get(k + 1));
+            }
+            assertEquals("Wrong distance for test " + i, expected, distances[i][i], 1e-9);
+        }
+    }
+
     private List<Map<String, Double>> paramsFromFile() throws Exception {
         List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
         List<Map<String, Double>> testParams = new ArrayList<>();
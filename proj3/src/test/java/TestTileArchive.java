@@ -0,0 +1,86 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Packs a small tile pyramid and checks that the archive serves the same bytes back.
+ */
+public class TestTileArchive {
+    private static final int MAX_DEPTH = 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSlotsAreDenseAndDistinct() {
+        boolean[] used = new boolean[TileArchive.slotCount(MAX_DEPTH)];
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            for (int y = 0; y < 1 << depth; y++) {
+                for (int x = 0; x < 1 << depth; x++) {
+                    int slot = TileArchive.slot(depth, x, y);
+                    assertEquals(false, used[slot]);
+                    used[slot] = true;
+                }
+            }
+        }
+        assertEquals(21, used.length);
+    }
+
+    @Test
+    public void testParseTileName() {
+        assertArrayEquals(new int[]{3, 12, 5}, TileArchive.parseTileName("d3_x12_y5.png"));
+        assertNull(TileArchive.parseTileName("root.png"));
+    }
+
+    @Test
+    public void testPackAndRead() throws Exception {
+        File imgRoot = folder.newFolder("imgs");
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            for (int y = 0; y < 1 << depth; y++) {
+                for (int x = 0; x < 1 << depth; x++) {
+                    if (depth == 2 && x == 3 && y == 1) {
+                        continue; // leave one tile missing
+                    }
+                    BufferedImage tile = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+                    tile.setRGB(x, y, 0x10000 * depth + 0x100 * x + y);
+                    ImageIO.write(tile, "png",
+                            new File(imgRoot, TileArchive.tileName(depth, x, y)));
+                }
+            }
+        }
+        File archiveFile = new File(folder.getRoot(), "imgs.tiles");
+        assertEquals(20, TileArchive.pack(imgRoot, MAX_DEPTH, archiveFile));
+
+        TileArchive archive = TileArchive.open(archiveFile);
+        assertEquals(MAX_DEPTH, archive.maxDepth());
+        byte[] expected = Files.readAllBytes(new File(imgRoot, "d2_x1_y3.png").toPath());
+        ByteBuffer actual = archive.get(2, 1, 3);
+        byte[] bytes = new byte[actual.remaining()];
+        actual.get(bytes);
+        assertArrayEquals(expected, bytes);
+
+        BufferedImage decoded = archive.read("d1_x1_y0.png");
+        assertEquals(0x10100 | 0xff000000, decoded.getRGB(1, 0));
+        assertNull(archive.get(2, 3, 1));
+        assertNull(archive.get(3, 0, 0));
+        assertNull(archive.get(1, 2, 0));
+    }
+
+    @Test
+    public void testRejectsOtherFiles() throws Exception {
+        File notAnArchive = folder.newFile("other.tiles");
+        Files.write(notAnArchive.toPath(), new byte[64]);
+        assertNull(TileArchive.open(notAnArchive));
+        assertNull(TileArchive.open(new File(folder.getRoot(), "missing.tiles")));
+    }
+}
@@ -0,0 +1,98 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks byte-budget eviction, shared loads and counters of TileCache.
+ */
+public class TestTileCache {
+    private static final int TILE_BYTES = 16 * 16 * Integer.BYTES;
+
+    private static BufferedImage tile() {
+        return new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedWithinBudget() {
+        AtomicInteger loads = new AtomicInteger();
+        TileCache cache = new TileCache(2 * TILE_BYTES, name -> {
+            loads.incrementAndGet();
+            return tile();
+        });
+        BufferedImage a = cache.get("a");
+        cache.get("b");
+        assertSame(a, cache.get("a"));
+        cache.get("c");
+        assertEquals(2, cache.size());
+        assertEquals(2 * TILE_BYTES, cache.bytes());
+        assertSame(a, cache.get("a"));
+        cache.get("b");
+        assertEquals(4, loads.get());
+        assertEquals(2, cache.hits());
+        assertEquals(4, cache.misses());
+        assertEquals(2, cache.evictions());
+    }
+
+    @Test
+    public void testConvertsToRgb() {
+        TileCache cache = new TileCache(TILE_BYTES,
+            name -> new BufferedImage(16, 16, BufferedImage.TYPE_BYTE_INDEXED));
+        assertEquals(BufferedImage.TYPE_INT_RGB, cache.get("a").getType());
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() {
+        AtomicInteger loads = new AtomicInteger();
+        TileCache cache = new TileCache(TILE_BYTES, name -> {
+            loads.incrementAndGet();
+            throw new IOException("missing " + name);
+        });
+        assertNull(cache.get("a"));
+        assertNull(cache.get("a"));
+        assertEquals(2, loads.get());
+        assertEquals(2, cache.loadFailures());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        int threads = 8;
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        TileCache cache = new TileCache(TILE_BYTES, name -> {
+            loads.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return tile();
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<BufferedImage>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(pool.submit(() -> cache.get("a")));
+        }
+        Thread.sleep(100);
+        release.countDown();
+        BufferedImage first = results.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<BufferedImage> result : results) {
+            assertSame(first, result.get(5, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+        assertEquals(1, loads.get());
+    }
+}
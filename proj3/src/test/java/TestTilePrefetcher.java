@@ -0,0 +1,101 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which tiles TilePrefetcher warms after pans and zooms, and that it warms them.
+ */
+public class TestTilePrefetcher {
+    private static final TileSet TILES = new TileSet("test", 0, 1, 1, 0, 4, 256,
+            TileSet.Backend.FILES, new File("imgs"));
+
+    private static TilePrefetcher.Viewport view(int depth, int firstX, int firstY, int lastX,
+                                                int lastY) {
+        return new TilePrefetcher.Viewport(TILES, depth, firstX, firstY, lastX, lastY);
+    }
+
+    @Test
+    public void testRingIsClampedToTheGrid() {
+        List<int[]> tiles = TilePrefetcher.plan(null, view(2, 0, 0, 1, 1));
+        assertEquals(5, tiles.size()); // only the east and south sides exist
+        for (int[] tile : tiles) {
+            assertEquals(2, tile[0]);
+            assertTrue(tile[1] == 2 || tile[2] == 2);
+        }
+    }
+
+    @Test
+    public void testPanDirectionComesFirst() {
+        List<int[]> tiles = TilePrefetcher.plan(view(3, 2, 2, 4, 3), view(3, 3, 2, 5, 3));
+        assertEquals(14, tiles.size());
+        // Panned east: the east column of the ring is loaded before anything else.
+        for (int i = 0; i < 4; i++) {
+            assertEquals(6, tiles.get(i)[1]);
+        }
+        assertEquals(2, tiles.get(tiles.size() - 1)[1]);
+    }
+
+    @Test
+    public void testZoomInWarmsChildrenOfTheMiddle() {
+        List<int[]> tiles = TilePrefetcher.plan(view(1, 0, 0, 1, 1), view(2, 0, 0, 3, 3));
+        assertArrayEquals(new int[]{3, 2, 2}, tiles.get(0));
+        assertArrayEquals(new int[]{3, 5, 5}, tiles.get(15));
+        assertEquals(16, tiles.size()); // the grid already covers its whole depth, no ring
+
+        // No children below the deepest level.
+        tiles = TilePrefetcher.plan(view(3, 0, 0, 1, 1), view(4, 0, 0, 1, 1));
+        assertEquals(5, tiles.size());
+        for (int[] tile : tiles) {
+            assertEquals(4, tile[0]);
+        }
+    }
+
+    @Test
+    public void testZoomOutWarmsParents() {
+        List<int[]> tiles = TilePrefetcher.plan(view(4, 0, 0, 1, 1), view(3, 4, 4, 5, 5));
+        // Tiles 3..6 at depth 3 have parents 1..3 at depth 2.
+        for (int i = 0; i < 9; i++) {
+            assertEquals(2, tiles.get(i)[0]);
+        }
+        assertArrayEquals(new int[]{2, 1, 1}, tiles.get(0));
+        assertArrayEquals(new int[]{2, 3, 3}, tiles.get(8));
+        assertEquals(9 + 12, tiles.size());
+    }
+
+    @Test
+    public void testWarmsCache() throws Exception {
+        Set<String> loaded = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        CountDownLatch ring = new CountDownLatch(8);
+        TileCache cache = new TileCache(1 << 20, name -> {
+            loaded.add(name);
+            ring.countDown();
+            return new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        });
+        TilePrefetcher prefetcher = new TilePrefetcher(cache, (t, name) -> t.name() + "/" + name,
+                1, 4, 10, 1, TimeUnit.MINUTES);
+        prefetcher.viewed("client", TILES, new String[][]{{"d2_x1_y1.png"}});
+        assertTrue(ring.await(10, TimeUnit.SECONDS));
+        assertTrue(loaded.contains("test/d2_x0_y0.png"));
+        assertTrue(loaded.contains("test/d2_x2_y2.png"));
+        assertEquals(8, cache.prefetches());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (cache.size() < 8 && System.nanoTime() < deadline) {
+            Thread.sleep(1); // the last tile is stored just after its loader returns
+        }
+        cache.get("test/d2_x2_y1.png");
+        assertEquals(1, cache.hits());
+        assertEquals(0, cache.misses());
+    }
+}
@@ -0,0 +1,130 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads tile set descriptors and plans rasters on a tile set much deeper than Berkeley's.
+ */
+public class TestTileSet {
+    private static final double DOUBLE_THRESHOLD = 0.000000001;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String fileName, String... lines) throws Exception {
+        File file = new File(folder.getRoot(), fileName);
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    @Test
+    public void testLoadAll() throws Exception {
+        write("b.properties", "name=oakland", "ullon=-122.34", "ullat=37.89", "lrlon=-122.16",
+                "lrlat=37.75", "max_depth=18", "tile_size=512", "backend=files",
+                "path=oakland_imgs");
+        write("a.properties", "ullon=0", "ullat=1", "lrlon=1", "lrlat=0", "max_depth=3",
+                "backend=archive", "path=/tmp/a.tiles");
+        write("notes.txt", "not a tile set");
+
+        List<TileSet> tileSets = TileSet.loadAll(folder.getRoot());
+        assertEquals(2, tileSets.size());
+        TileSet a = tileSets.get(0);
+        assertEquals("a", a.name());
+        assertEquals(256, a.tileSize());
+        assertEquals(TileSet.Backend.ARCHIVE, a.backend());
+        assertEquals(new File("/tmp/a.tiles"), a.path());
+        TileSet oakland = tileSets.get(1);
+        assertEquals("oakland", oakland.name());
+        assertEquals(18, oakland.maxDepth());
+        assertEquals(512, oakland.tileSize());
+        assertEquals(new File(folder.getRoot(), "oakland_imgs"), oakland.path());
+        assertTrue(oakland.contains(-122.2, 37.8));
+        assertEquals(false, oakland.contains(-122.2, 37.7));
+
+        assertEquals(0, TileSet.loadAll(new File(folder.getRoot(), "missing")).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsMissingProperty() throws Exception {
+        TileSet.load(write("bad.properties", "ullon=0", "ullat=1", "lrlon=1", "lrlat=0",
+                "backend=files", "path=imgs"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsArchiveDeeperThanIndex() throws Exception {
+        TileSet.load(write("deep.properties", "ullon=0", "ullat=1", "lrlon=1", "lrlat=0",
+                "max_depth=" + (TileArchive.MAX_DEPTH + 1), "backend=archive", "path=a.tiles"));
+    }
+
+    @Test
+    public void testRasterAtDepth20() {
+        int depth = 20;
+        TileSet tileSet = new TileSet("deep", -122.5, 38.0, -122.0, 37.5, depth, 256,
+                TileSet.Backend.FILES, new File("imgs"));
+        Rasterer rasterer = new Rasterer(tileSet);
+        double tileWidth = 0.5 / (1 << depth);
+        // Exactly tiles x = 700000..700003, y = 123456..123457 at one pixel per tile pixel.
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", -122.5 + tileWidth * 700000);
+        params.put("lrlon", -122.5 + tileWidth * 700004 - tileWidth / 1000);
+        params.put("ullat", 38.0 - tileWidth * 123456);
+        params.put("lrlat", 38.0 - tileWidth * 123458 + tileWidth / 1000);
+        params.put("w", 1024.0);
+        params.put("h", 512.0);
+        Map<String, Object> result = rasterer.getMapRaster(params);
+
+        assertEquals(true, result.get("query_success"));
+        assertEquals(depth, result.get("depth"));
+        String[][] grid = (String[][]) result.get("render_grid");
+        assertEquals(2, grid.length);
+        assertArrayEquals(new String[]{"d20_x700000_y123457.png", "d20_x700001_y123457.png",
+            "d20_x700002_y123457.png", "d20_x700003_y123457.png"}, grid[1]);
+        assertEquals(params.get("ullon"), (double) result.get("raster_ul_lon"),
+                DOUBLE_THRESHOLD);
+        assertEquals(38.0 - tileWidth * 123458, (double) result.get("raster_lr_lat"),
+                DOUBLE_THRESHOLD);
+
+        // Depth 19 tiles have twice the distance per pixel, just under that of this window.
+        params.put("w", 500.0);
+        assertEquals(depth - 1, rasterer.getMapRaster(params).get("depth"));
+    }
+
+    @Test
+    public void testRejectsHugeRaster() {
+        TileSet tileSet = new TileSet("deep", -122.5, 38.0, -122.0, 37.5, 18, 256,
+                TileSet.Backend.FILES, new File("imgs"));
+        Rasterer rasterer = new Rasterer(tileSet);
+        // The whole root box at the deepest level would be 2^18 by 2^18 tiles.
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", -122.5);
+        params.put("lrlon", -122.0);
+        params.put("ullat", 38.0);
+        params.put("lrlat", 37.5);
+        params.put("w", 1e8);
+        params.put("h", 1e8);
+        Map<String, Object> result = rasterer.getMapRaster(params);
+        assertEquals(false, result.get("query_success"));
+        assertEquals(null, result.get("render_grid"));
+
+        // A 4K viewport over the same box still gets its raster.
+        params.put("w", 3840.0);
+        params.put("h", 2160.0);
+        result = rasterer.getMapRaster(params);
+        assertEquals(true, result.get("query_success"));
+        String[][] grid = (String[][]) result.get("render_grid");
+        assertTrue((long) grid.length * grid[0].length * 256 * 256
+                <= Rasterer.MAX_RASTER_PIXELS);
+    }
+}
@@ -0,0 +1,102 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks TokenIndex matches against filtering every key, and its galloping intersection.
+ */
+public class TestTokenIndex {
+    @Test
+    public void testWordsAnywhereInTheName() {
+        Map<String, List<Integer>> entries = new HashMap<>();
+        entries.put("peets coffee", Arrays.asList(1, 2, 3));
+        entries.put("coffee lab", Collections.singletonList(4));
+        entries.put("the coffee cart", Collections.singletonList(5));
+        entries.put("cafe strada", Arrays.asList(6, 7));
+        TokenIndex<Integer> index = new TokenIndex<>(entries);
+        assertEquals(7, index.tokens());
+        assertEquals(Arrays.asList(1, 4, 5), index.getMatches("coffee", 10));
+        assertEquals(Arrays.asList(1, 4), index.getMatches("coffee ", 2));
+        assertEquals(Arrays.asList(1, 6, 4, 5), index.getMatches("c", 10));
+        assertEquals(Arrays.asList(1), index.getMatches("coffee pe", 10));
+        assertEquals(Arrays.asList(5), index.getMatches("  cart  the ", 10));
+        assertEquals(Collections.emptyList(), index.getMatches("coffee pe ", 10));
+        assertEquals(Collections.emptyList(), index.getMatches("tea", 10));
+        assertEquals(Collections.emptyList(), index.getMatches(" ", 10));
+        assertEquals(Collections.emptyList(), index.getMatches("coffee", 0));
+    }
+
+    @Test
+    public void testIntersect() {
+        int[] a = {1, 3, 5, 7, 9, 100};
+        int[] b = {0, 0, 1, 2, 3, 4, 6, 7, 8, 9, 10, 11, 12, 13, 99};
+        int kept = TokenIndex.intersect(a, a.length, b, 2, b.length);
+        assertArrayEquals(new int[]{1, 3, 7, 9}, Arrays.copyOf(a, kept));
+        int[] c = {0, 13};
+        assertEquals(0, TokenIndex.intersect(c, c.length, b, 2, 13));
+        assertEquals(0, TokenIndex.intersect(c, c.length, b, 3, 3));
+    }
+
+    @Test
+    public void testRandomQueriesMatchScan() {
+        Random random = new Random(24);
+        String[] words = {"a", "ab", "abc", "b", "ba", "c", "cab", "d"};
+        TreeMap<String, List<Integer>> entries = new TreeMap<>();
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder key = new StringBuilder();
+            int length = 1 + random.nextInt(4);
+            for (int j = 0; j < length; j++) {
+                key.append(j > 0 ? " " : "").append(words[random.nextInt(words.length)]);
+            }
+            entries.computeIfAbsent(key.toString(), k -> new ArrayList<>()).add(i);
+        }
+        TokenIndex<Integer> index = new TokenIndex<>(entries);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder query = new StringBuilder();
+            int length = 1 + random.nextInt(3);
+            for (int j = 0; j < length; j++) {
+                query.append(j > 0 ? " " : "").append(words[random.nextInt(words.length)]);
+            }
+            if (random.nextBoolean()) {
+                query.append(' ');
+            }
+            String[] terms = query.toString().trim().split(" ");
+            boolean lastIsPrefix = query.charAt(query.length() - 1) != ' ';
+            List<String> matches = new ArrayList<>();
+            for (String key : entries.keySet()) {
+                List<String> tokens = Arrays.asList(key.split(" "));
+                boolean all = true;
+                for (int t = 0; t < terms.length; t++) {
+                    boolean found = tokens.contains(terms[t]);
+                    if (t == terms.length - 1 && lastIsPrefix) {
+                        found = false;
+                        for (String token : tokens) {
+                            found |= token.startsWith(terms[t]);
+                        }
+                    }
+                    all &= found;
+                }
+                if (all) {
+                    matches.add(key);
+                }
+            }
+            matches.sort((a, b) -> entries.get(b).size() - entries.get(a).size());
+            int k = 1 + random.nextInt(10);
+            List<Integer> expected = new ArrayList<>();
+            for (String key : matches.subList(0, Math.min(k, matches.size()))) {
+                expected.add(entries.get(key).get(0));
+            }
+            assertEquals("'" + query + "'", expected, index.getMatches(query.toString(), k));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that VectorTiles clips, simplifies and encodes ways, by decoding its tiles.
+ */
+public class TestVectorTiles {
+    /** A unit square pyramid deep enough to use the cell index. */
+    private static final TileSet TILES = new TileSet("test", 0, 1, 1, 0, 8, 256,
+            TileSet.Backend.FILES, new File("imgs"));
+
+    /** A decoded feature: its name, way id and points as {x0, y0, x1, y1, ...}. */
+    private static class Feature {
+        String name;
+        long id;
+        long[] points;
+    }
+
+    private int at;
+
+    private long readVarint(byte[] tile) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = tile[at++];
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private List<Feature> decode(byte[] tile) {
+        at = 0;
+        assertEquals(VectorTiles.VERSION, readVarint(tile));
+        assertEquals(VectorTiles.EXTENT, readVarint(tile));
+        String[] names = new String[(int) readVarint(tile)];
+        for (int i = 0; i < names.length; i++) {
+            int length = (int) readVarint(tile);
+            names[i] = new String(tile, at, length, StandardCharsets.UTF_8);
+            at += length;
+        }
+        List<Feature> features = new ArrayList<>();
+        long x = 0;
+        long y = 0;
+        for (long f = readVarint(tile); f > 0; f--) {
+            Feature feature = new Feature();
+            int name = (int) readVarint(tile);
+            feature.name = name == 0 ? null : names[name - 1];
+            feature.id = readVarint(tile);
+            feature.points = new long[2 * (int) readVarint(tile)];
+            for (int p = 0; p < feature.points.length; p += 2) {
+                long dx = readVarint(tile);
+                long dy = readVarint(tile);
+                x += (dx >>> 1) ^ -(dx & 1);
+                y += (dy >>> 1) ^ -(dy & 1);
+                feature.points[p] = x;
+                feature.points[p + 1] = y;
+            }
+            features.add(feature);
+        }
+        assertEquals(tile.length, at);
+        return features;
+    }
+
+    /** A graph with a way through each list of {lon, lat} points, ids from 1. */
+    private static GraphDB graph(String[] names, double[][]... ways) {
+        GraphDB g = new GraphDB();
+        long node = 0;
+        for (int w = 0; w < ways.length; w++) {
+            ArrayList<Long> ids = new ArrayList<>();
+            for (double[] point : ways[w]) {
+                g.addNode(++node, point[0], point[1]);
+                ids.add(node);
+            }
+            g.addWay(w + 1, ids).setName(names[w]);
+        }
+        return g;
+    }
+
+    @Test
+    public void testRootTileHoldsEveryWay() {
+        GraphDB g = graph(new String[]{"Main Street", null, "Main Street"},
+                new double[][]{{0.25, 0.75}, {0.75, 0.75}},
+                new double[][]{{0.5, 0.5}, {0.5, 0.25}},
+                new double[][]{{0.75, 0.75}, {0.75, 0.25}});
+        List<Feature> features = decode(new VectorTiles(g, TILES).encode(0, 0, 0));
+        assertEquals(3, features.size());
+        assertEquals("Main Street", features.get(0).name);
+        assertEquals(1, features.get(0).id);
+        assertArrayEquals(new long[]{1024, 1024, 3072, 1024}, features.get(0).points);
+        assertEquals(null, features.get(1).name);
+        assertArrayEquals(new long[]{2048, 2048, 2048, 3072}, features.get(1).points);
+        assertEquals("Main Street", features.get(2).name);
+    }
+
+    @Test
+    public void testWaysAreClippedToTheBufferedTile() {
+        // Crosses tile (1, 0) at depth 1 from west to east, dipping south out of it.
+        GraphDB g = graph(new String[]{null},
+                new double[][]{{0.25, 0.75}, {0.75, 0.75}, {0.8, 0.25}, {0.9, 0.75}});
+        VectorTiles tiles = new VectorTiles(g, TILES);
+        List<Feature> features = decode(tiles.encode(1, 1, 0));
+        assertEquals(2, features.size());
+        long[] first = features.get(0).points;
+        assertEquals(-VectorTiles.BUFFER, first[0]);
+        assertEquals(2048, first[1]);
+        assertEquals(2048, first[2]);
+        assertEquals(VectorTiles.EXTENT + VectorTiles.BUFFER, first[first.length - 1]);
+        long[] second = features.get(1).points;
+        assertEquals(VectorTiles.EXTENT + VectorTiles.BUFFER, second[1]);
+        assertArrayEquals(new long[]{3277, 2048},
+                Arrays.copyOfRange(second, second.length - 2, second.length));
+
+        assertEquals(0, decode(tiles.encode(1, 0, 1)).size());
+    }
+
+    @Test
+    public void testDeepTilesUseTheIndex() {
+        GraphDB g = graph(new String[]{"A", "B"},
+                new double[][]{{0.1, 0.9}, {0.11, 0.9}},
+                new double[][]{{0.6, 0.4}, {0.61, 0.4}});
+        VectorTiles tiles = new VectorTiles(g, TILES);
+        // (0.1, 0.9) is in tile (25, 25) at depth 8.
+        List<Feature> features = decode(tiles.encode(8, 25, 25));
+        assertEquals(1, features.size());
+        assertEquals("A", features.get(0).name);
+        assertEquals(0, decode(tiles.encode(8, 200, 200)).size());
+    }
+
+    @Test
+    public void testShallowTilesAreSimplified() {
+        // A zigzag far smaller than a pixel at depth 0 but not at depth 6, all within
+        // tile (6, 35) there.
+        double[][] line = new double[101][];
+        for (int i = 0; i <= 100; i++) {
+            line[i] = new double[]{0.1 + i * 0.00009, 0.45 + (i % 2) * 0.00005};
+        }
+        VectorTiles tiles = new VectorTiles(graph(new String[]{null}, line), TILES);
+        List<Feature> root = decode(tiles.encode(0, 0, 0));
+        assertEquals(1, root.size());
+        assertEquals(4, root.get(0).points.length);
+        List<Feature> deep = decode(tiles.encode(6, 6, 35));
+        assertEquals(1, deep.size());
+        assertTrue(deep.get(0).points.length > 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTileOutsideThePyramid() {
+        new VectorTiles(new GraphDB(), TILES).encode(2, 4, 0);
+    }
+}